@@ -0,0 +1,275 @@
+package bguspl.set;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * JMH benchmarks of the set engine (UtilImpl), and of the combination enumerator it replaced (as a reference for the
+ * backtracking search, see CombinationEnumerator).
+ * Build with "mvn -P jmh package" and run with "java -jar target/benchmarks.jar -rf json -rff target/jmh-result.json"
+ * to get machine readable results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetEngineBenchmark {
+
+    /**
+     * The number of fixtures each benchmark cycles through (a power of 2), so a single input is not learned.
+     */
+    private static final int FIXTURES = 64;
+
+    private static final long SEED = 42;
+
+    /**
+     * Creates the set engine for a deck shape written as FeatureSize^FeatureCount.
+     */
+    private static Util createUtil(String deck) {
+        String[] shape = deck.split("\\^");
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("FeatureSize", shape[0]);
+        properties.setProperty("FeatureCount", shape[1]);
+        Logger logger = Logger.getLogger("SetEngineBenchmark");
+        logger.setUseParentHandlers(false);
+        return new UtilImpl(new Config(logger, properties));
+    }
+
+    private static List<Integer> shuffledDeck(int deckSize, Random random) {
+        List<Integer> deck = IntStream.range(0, deckSize).boxed().collect(Collectors.toList());
+        Collections.shuffle(deck, random);
+        return deck;
+    }
+
+    @State(Scope.Thread)
+    public static class DeckState {
+
+        @Param({"3^4", "3^5", "4^4", "5^3"})
+        public String deck;
+
+        Util util;
+
+        /**
+         * Candidate sets for testSet: every other one is a legal set.
+         */
+        int[][] candidates;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            util = createUtil(deck);
+            String[] shape = deck.split("\\^");
+            int featureSize = Integer.parseInt(shape[0]);
+            int deckSize = (int) Math.pow(featureSize, Integer.parseInt(shape[1]));
+            Random random = new Random(SEED);
+
+            int[] all = IntStream.range(0, deckSize).toArray();
+            int[] legal = new int[FIXTURES * featureSize];
+            util.findSets(all, all.length, FIXTURES, legal);
+
+            candidates = new int[FIXTURES][];
+            for (int i = 0; i < FIXTURES; ++i) {
+                if (i % 2 == 0) {
+                    int set = random.nextInt(FIXTURES);
+                    candidates[i] = new int[featureSize];
+                    System.arraycopy(legal, set * featureSize, candidates[i], 0, featureSize);
+                } else
+                    candidates[i] = shuffledDeck(deckSize, random).stream().limit(featureSize).mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        int[] nextCandidate() {
+            return candidates[next++ & (FIXTURES - 1)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TableState {
+
+        @Param({"3^4", "3^5", "4^4", "5^3"})
+        public String deck;
+
+        @Param({"12", "15", "21"})
+        public int tableSize;
+
+        /**
+         * random: random cards from the deck. noSet: the largest set free table found (at most tableSize cards), the
+         * worst case of the search as it never stops early (note that no 21 cards of 3^4 are set free).
+         */
+        @Param({"random", "noSet"})
+        public String table;
+
+        Util util;
+        CombinationEnumerator enumerator;
+        int[][] tables;
+        List<List<Integer>> tableLists;
+        int[] sets;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            util = createUtil(deck);
+            String[] shape = deck.split("\\^");
+            int featureSize = Integer.parseInt(shape[0]);
+            int featureCount = Integer.parseInt(shape[1]);
+            int deckSize = (int) Math.pow(featureSize, featureCount);
+            enumerator = new CombinationEnumerator(featureSize, featureCount);
+            Random random = new Random(SEED);
+
+            tables = new int[FIXTURES][];
+            tableLists = new ArrayList<>();
+            for (int i = 0; i < FIXTURES; ++i) {
+                tables[i] = table.equals("noSet") ? setFreeTable(deckSize, random)
+                        : shuffledDeck(deckSize, random).stream().limit(tableSize).mapToInt(Integer::intValue).toArray();
+                tableLists.add(Arrays.stream(tables[i]).boxed().collect(Collectors.toList()));
+            }
+
+            // room for every possible featureSize-combination of the table
+            long combinations = 1;
+            for (int i = 0; i < featureSize; ++i)
+                combinations = combinations * (tableSize - i) / (i + 1);
+            sets = new int[(int) combinations * featureSize];
+        }
+
+        /**
+         * Builds set free tables greedily (adding random cards that complete no set), keeping the largest of a few.
+         */
+        private int[] setFreeTable(int deckSize, Random random) {
+            int[] best = new int[0];
+            for (int attempt = 0; attempt < 16 && best.length < tableSize; ++attempt) {
+                int[] cards = new int[tableSize];
+                int len = 0;
+                for (int card : shuffledDeck(deckSize, random)) {
+                    if (len == tableSize) break;
+                    if (util.findSetsWith(card, cards, len, 1, null) == 0) cards[len++] = card;
+                }
+                if (len > best.length) {
+                    best = new int[len];
+                    System.arraycopy(cards, 0, best, 0, len);
+                }
+            }
+            return best;
+        }
+
+        int[] nextTable() {
+            return tables[next++ & (FIXTURES - 1)];
+        }
+
+        List<Integer> nextTableList() {
+            return tableLists.get(next++ & (FIXTURES - 1));
+        }
+    }
+
+    /**
+     * The combination enumerator the backtracking search replaced, as it was: every featureSize-combination of the
+     * cards in lexicographic order, each tested feature by feature with the O(r^2) "butDifferent" check.
+     */
+    static class CombinationEnumerator {
+
+        private final int featureSize;
+        private final int featureCount;
+
+        CombinationEnumerator(int featureSize, int featureCount) {
+            this.featureSize = featureSize;
+            this.featureCount = featureCount;
+        }
+
+        private int[][] cardsToFeatures(int[] cards) {
+            int[][] features = new int[cards.length][featureCount];
+            for (int c = 0; c < cards.length; ++c)
+                for (int i = featureCount - 1, card = cards[c]; i >= 0; --i) {
+                    features[c][i] = card % featureSize;
+                    card /= featureSize;
+                }
+            return features;
+        }
+
+        boolean testSet(int[] cards) {
+            int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
+            for (int i = 0; i < featureCount; ++i) {
+                boolean sameSame = true, butDifferent = true;
+                for (int j = 1; j < features.length; ++j)
+                    if (features[0][i] != features[j][i]) {
+                        sameSame = false;
+                        break;
+                    }
+                for (int j = 1; j < features.length; ++j)
+                    for (int k = j; k < features.length; ++k)
+                        if (features[j - 1][i] == features[k][i]) {
+                            butDifferent = false;
+                            break;
+                        }
+                if (sameSame == butDifferent) return false;
+            }
+            return true;
+        }
+
+        List<int[]> findSets(List<Integer> deck, int count) {
+            LinkedList<int[]> sets = new LinkedList<>();
+            int n = deck.size();
+            int r = featureSize;
+            int[] combination = new int[r];
+            for (int i = 0; i < r; ++i)
+                combination[i] = i;
+
+            while (combination[r - 1] < deck.size()) {
+                int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
+                if (testSet(cards)) {
+                    sets.add(cards);
+                    if (sets.size() >= count) return sets;
+                }
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            }
+            return sets;
+        }
+    }
+
+    @Benchmark
+    public boolean testSet(DeckState state) {
+        return state.util.testSet(state.nextCandidate());
+    }
+
+    @Benchmark
+    public int[][] cardsToFeatures(DeckState state) {
+        return state.util.cardsToFeatures(state.nextCandidate());
+    }
+
+    @Benchmark
+    public int findFirstSet(TableState state) {
+        int[] table = state.nextTable();
+        return state.util.findSets(table, table.length, 1, state.sets);
+    }
+
+    @Benchmark
+    public int findAllSets(TableState state) {
+        int[] table = state.nextTable();
+        return state.util.findSets(table, table.length, Integer.MAX_VALUE, state.sets);
+    }
+
+    @Benchmark
+    public int findFirstSetByEnumeration(TableState state) {
+        return state.enumerator.findSets(state.nextTableList(), 1).size();
+    }
+
+    @Benchmark
+    public int findAllSetsByEnumeration(TableState state) {
+        return state.enumerator.findSets(state.nextTableList(), Integer.MAX_VALUE).size();
+    }
+}
@@ -0,0 +1,211 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static bguspl.set.UserInterfaceSwing.intInBaseToPaddedString;
+
+/**
+ * The card images of the game, decoded on a background pool of threads and scaled to the size of a cell.
+ * Decks of up to ATLAS_MAX_CARDS cards are all decoded at once (in parallel) into a single sprite atlas, and the cards
+ * of larger decks are decoded on demand (the first time they are drawn) into a bounded LRU cache.
+ * Until a card's image is ready the empty card is drawn instead, and onReady is called once it is.
+ */
+class CardImages {
+
+    /**
+     * The largest deck that is kept in an atlas (81 cards of 258x167 pixels take 14MB).
+     */
+    private static final int ATLAS_MAX_CARDS = 128;
+
+    /**
+     * The number of cards in a row of the atlas.
+     */
+    private static final int ATLAS_COLUMNS = 16;
+
+    /**
+     * The states of a card's image.
+     */
+    private static final int MISSING = 0;
+    private static final int LOADING = 1;
+    private static final int READY = 2;
+
+    private final Config config;
+    private final Logger logger;
+    private final IntConsumer onReady;
+    private final ThreadPoolExecutor loaders;
+    private final BufferedImage emptyCard;
+    private final AtomicIntegerArray states;
+
+    /**
+     * The atlas of all the cards (null if the deck is too large), and the number of cards decoded into it.
+     */
+    private final BufferedImage atlas;
+    private final AtomicInteger decoded = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * The most recently drawn cards (used if the deck is too large for an atlas).
+     */
+    private final Map<Integer, BufferedImage> cache;
+
+    /**
+     * @param config  - the game configuration.
+     * @param logger  - the logger of the game.
+     * @param onReady - called (on a loader thread) with a card once its image is ready.
+     */
+    CardImages(Config config, Logger logger, IntConsumer onReady) {
+        this.config = config;
+        this.logger = logger;
+        this.onReady = onReady;
+        assert config.featureSize < 10; // otherwise there will be naming conflicts
+
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        AtomicInteger loaderThreads = new AtomicInteger();
+        loaders = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "card-loader-" + loaderThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaders.allowCoreThreadTimeOut(true);
+
+        emptyCard = scaled(decode("cards/empty_card.png"));
+        states = new AtomicIntegerArray(config.deckSize);
+        if (config.deckSize <= ATLAS_MAX_CARDS) {
+            int rows = (config.deckSize + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS;
+            atlas = new BufferedImage(Math.min(config.deckSize, ATLAS_COLUMNS) * config.cellWidth,
+                    Math.max(1, rows) * config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+            cache = null;
+            for (int card = 0; card < config.deckSize; card++)
+                request(card);
+        } else {
+            atlas = null;
+            int capacity = 2 * config.tableSize;
+            cache = new LinkedHashMap<Integer, BufferedImage>(capacity, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+                    if (size() <= capacity) return false;
+                    states.set(eldest.getKey(), MISSING);
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * Draws a card (or the empty card if card is -1 or its image is not ready yet) in a cell.
+     *
+     * @param g    - the graphics to draw with.
+     * @param card - the card to draw.
+     * @param x    - the left of the cell.
+     * @param y    - the top of the cell.
+     */
+    void draw(Graphics g, int card, int x, int y) {
+        if (card >= 0 && states.get(card) == READY) {
+            if (atlas != null) {
+                int sx = card % ATLAS_COLUMNS * config.cellWidth;
+                int sy = card / ATLAS_COLUMNS * config.cellHeight;
+                synchronized (atlas) {
+                    g.drawImage(atlas, x, y, x + config.cellWidth, y + config.cellHeight,
+                            sx, sy, sx + config.cellWidth, sy + config.cellHeight, null);
+                }
+                return;
+            }
+            BufferedImage image;
+            synchronized (cache) {
+                image = cache.get(card);
+            }
+            if (image != null) {
+                g.drawImage(image, x, y, null);
+                return;
+            }
+        }
+        if (card >= 0) request(card);
+        g.drawImage(emptyCard, x, y, null);
+    }
+
+    /**
+     * Queues a card to be decoded, unless it is already ready or being decoded.
+     */
+    private void request(int card) {
+        if (!states.compareAndSet(card, MISSING, LOADING)) return;
+        loaders.execute(() -> {
+            BufferedImage image;
+            try {
+                image = decode("cards/" + intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png");
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "card " + card + " could not be loaded", e);
+                image = emptyCard;
+            }
+            if (atlas != null) {
+                Graphics2D g = atlas.createGraphics();
+                synchronized (atlas) {
+                    drawScaled(g, image, card % ATLAS_COLUMNS * config.cellWidth, card / ATLAS_COLUMNS * config.cellHeight);
+                }
+                g.dispose();
+                states.set(card, READY);
+                if (decoded.incrementAndGet() == config.deckSize)
+                    logger.info(String.format("decoded %d card images in %d ms on %d threads", config.deckSize,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), loaders.getMaximumPoolSize()));
+            } else {
+                image = scaled(image);
+                synchronized (cache) {
+                    cache.put(card, image);
+                }
+                states.set(card, READY);
+            }
+            onReady.accept(card);
+        });
+    }
+
+    /**
+     * @return - true iff the images of all the cards are ready (always false if the deck is too large for an atlas).
+     */
+    boolean allReady() {
+        return decoded.get() == config.deckSize;
+    }
+
+    private BufferedImage decode(String filename) {
+        URL imageResource = getClass().getClassLoader().getResource(filename);
+        if (imageResource == null)
+            throw new RuntimeException(new FileNotFoundException(filename));
+        try {
+            BufferedImage image = ImageIO.read(imageResource);
+            if (image == null) throw new IOException("unsupported image format: " + filename);
+            return image;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return - the image scaled to the size of a cell.
+     */
+    private BufferedImage scaled(BufferedImage image) {
+        if (image.getWidth() == config.cellWidth && image.getHeight() == config.cellHeight) return image;
+        BufferedImage scaled = new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        drawScaled(g, image, 0, 0);
+        g.dispose();
+        return scaled;
+    }
+
+    private void drawScaled(Graphics2D g, Image image, int x, int y) {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, x, y, config.cellWidth, config.cellHeight, null);
+    }
+}
@@ -0,0 +1,37 @@
+package bguspl.set;
+
+/**
+ * The source of time of the game, and the way threads wait for it to pass.
+ */
+public interface Clock {
+
+    /**
+     * The wall clock.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void await(Object monitor, long deadline) throws InterruptedException {
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout > 0) monitor.wait(timeout);
+        }
+    };
+
+    /**
+     * @return - the current time in milliseconds.
+     */
+    long millis();
+
+    /**
+     * Waits on a monitor held by the caller until it is notified or the deadline passes (possibly returning earlier,
+     * so the caller should check its condition and the time in a loop, as with Object.wait).
+     *
+     * @param monitor  - the monitor to wait on.
+     * @param deadline - the time (of this clock) to wait until.
+     */
+    void await(Object monitor, long deadline) throws InterruptedException;
+}
@@ -36,6 +36,16 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * The number of threads used to search for sets in large collections of cards (1 for sequential search only)
+     */
+    public final int setSearchThreads;
+
+    /**
+     * The minimal number of cards for which the set search is run in parallel
+     */
+    public final int parallelSearchThreshold;
+
     /**
      * The number of human players in the game.
      */
@@ -51,6 +61,17 @@ public class Config {
      */
     public final int players;
 
+    /**
+     * True iff the players run as tasks on a shared executor, false if each one has a thread of its own (plus one for
+     * each computer player)
+     */
+    public final boolean playersOnExecutor;
+
+    /**
+     * The number of threads of the shared players executor
+     */
+    public final int playerThreads;
+
     /**
      * Whether to print out hints to the console or not
      */
@@ -132,6 +153,27 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The maximal number of times per second the user interface is updated
+     */
+    public final int framesPerSecond;
+
+    /**
+     * The TCP port of the game server for remote players and spectators (0 for no server)
+     */
+    public final int serverPort;
+
+    /**
+     * Whether to record the game into a replay file in the logs folder (played back with bguspl.set.Replay)
+     */
+    public final boolean recordReplay;
+
+    /**
+     * Whether to trace the key presses from the input to the user interface (the latencies are logged at the end of the game,
+     * and can be dumped with F12)
+     */
+    public final boolean traceKeys;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -155,21 +197,21 @@ public class Config {
      * @param filename - the name of the configuration file.
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    static Properties loadProperties(String filename, Logger logger) {
 
         Properties properties = new Properties();
 
         if (filename == null || filename.isEmpty())
-            logger.severe("running with default configuration.");
+            logger.warning("running with default configuration.");
         else try (InputStream is = Files.newInputStream(Paths.get(filename))) {
             properties.load(is);
         } catch (IOException e) {
-            logger.severe("cannot read configuration file " + filename + " trying from resources.");
+            logger.warning("cannot read configuration file " + filename + " trying from resources.");
             try (InputStream is = Config.class.getClassLoader().getResourceAsStream(filename)) {
                 properties.load(is);
-                logger.severe("configuration file was loaded from resources directory.");
+                logger.info("configuration file was loaded from resources directory.");
             } catch (IOException | InvalidPathException ex) {
-                logger.severe("warning: cannot read config file from the resources directory either. Using defaults.");
+                logger.warning("cannot read config file from the resources directory either. Using defaults.");
             }
         }
 
@@ -197,11 +239,17 @@ public class Config {
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
         deckSize = (int) Math.pow(featureSize, featureCount);
+        int searchThreads = Integer.parseInt(properties.getProperty("SetSearchThreads", "1"));
+        setSearchThreads = searchThreads > 0 ? searchThreads : Runtime.getRuntime().availableProcessors();
+        parallelSearchThreshold = Integer.parseInt(properties.getProperty("ParallelSearchThreshold", "243"));
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
         players = humanPlayers + computerPlayers;
+        playersOnExecutor = properties.getProperty("PlayerRuntime", "threads").trim().equalsIgnoreCase("executor");
+        int threads = Integer.parseInt(properties.getProperty("PlayerThreads", "0"));
+        playerThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
@@ -224,6 +272,10 @@ public class Config {
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        framesPerSecond = Math.max(1, Integer.parseInt(properties.getProperty("FramesPerSecond", "60")));
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "0"));
+        recordReplay = Boolean.parseBoolean(properties.getProperty("RecordReplay", "False"));
+        traceKeys = Boolean.parseBoolean(properties.getProperty("TraceKeys", "False"));
 
         // keyboard input data
         playerKeys = new int[players][rows * columns];
@@ -234,7 +286,7 @@ public class Config {
             if (playerKeysString.length() > 0) {
                 String[] codes = playerKeysString.split(",");
                 if (codes.length != tableSize)
-                    logger.severe("warning: player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + ").");
+                    logger.warning("player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + ").");
                 for (int j = 0; j < Math.min(codes.length, tableSize); ++j) // parse the key codes string
                     playerKeys[i][j] = Integer.parseInt(codes[j]);
             }
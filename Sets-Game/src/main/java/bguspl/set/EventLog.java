@@ -0,0 +1,373 @@
+package bguspl.set;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * An asynchronous log handler: the logging threads put events into a lock-free ring buffer of preallocated entries,
+ * and a single writer thread formats them and writes them to the log file in batches.
+ * The frequent game events are logged with log(Event, a, b), which allocates nothing (the message is built by the
+ * writer from the event's text and its arguments), and other messages are logged through the logger as usual.
+ * When the ring buffer is full the event is dropped (and counted) rather than blocking the game.
+ */
+public class EventLog extends Handler {
+
+    /**
+     * The frequent game events, with their level and their text (the arguments are put between the pieces of text).
+     */
+    public enum Event {
+        CARD_PLACED(Level.FINE, "placing card ", " in slot ", ""),
+        CARD_REMOVED(Level.FINE, "removing card from slot ", ""),
+        TOKEN_PLACED(Level.FINE, "player ", " placing token on slot ", ""),
+        TOKEN_REMOVED(Level.FINE, "removing player ", " token from slot ", ""),
+        SLOT_TOKENS_REMOVED(Level.FINE, "removing tokens from slot ", ""),
+        ALL_TOKENS_REMOVED(Level.FINE, "removing all tokens"),
+        FREEZE(Level.FINE, "setting player ", " freeze to ", ""),
+        SCORE(Level.INFO, "setting player ", " score to ", ""),
+        CLAIM_CHECKED(Level.FINE, "player ", " claim verdict: ", " (0 point, 1 penalty, 2 stale)"),
+        COUNTDOWN(Level.FINEST, "updating countdown to ", ""),
+        ELAPSED(Level.FINEST, "updating elapsed time to ", ""),
+        KEY_PRESSED(Level.FINER, "key ", " was pressed by player ", "");
+
+        public final Level level;
+        private final String[] text;
+
+        Event(Level level, String... text) {
+            this.level = level;
+            this.text = text;
+        }
+
+        private void appendTo(StringBuilder sb, long a, long b) {
+            for (int i = 0; i < text.length; i++) {
+                sb.append(text[i]);
+                if (i < text.length - 1) sb.append(i == 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * The format of a line in the log file that is formatted without String.format.
+     */
+    static final String DEFAULT_FORMAT = "[%1$tT.%1$tL] [%2$-7s] %3$s%n";
+
+    /**
+     * The number of entries in the ring buffer (a power of 2), and the most entries written before a flush.
+     */
+    private static final int CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * How long the writer sleeps when there is nothing to write (unless woken up by an event).
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * An entry of the ring buffer: either a game event and its arguments or a log record.
+     */
+    private static final class Entry {
+        /**
+         * The sequence number of the entry plus 1, written last (so the entry is ready once it matches).
+         */
+        volatile long published;
+        long millis;
+        Event event;
+        long a;
+        long b;
+        LogRecord record;
+    }
+
+    private final Logger logger;
+    private final Entry[] ring;
+    private final Writer out;
+    private final Thread writer;
+
+    /**
+     * The number of entries claimed by the logging threads, written by the writer, and flushed to the file.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private volatile long flushed;
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+    private volatile String format = DEFAULT_FORMAT;
+
+    /**
+     * The writer's buffer for a line, and the local time zone.
+     */
+    private final StringBuilder line = new StringBuilder(256);
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    /**
+     * Creates a log writing to a file, and installs it as the handler of a logger.
+     *
+     * @param logger   - the logger.
+     * @param filename - the log file.
+     */
+    public EventLog(Logger logger, String filename) throws IOException {
+        this.logger = logger;
+        ring = new Entry[CAPACITY];
+        for (int i = 0; i < CAPACITY; i++)
+            ring[i] = new Entry();
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 16);
+        writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.addHandler(this);
+    }
+
+    /**
+     * A log that logs the game events synchronously through a logger that has no event log.
+     */
+    private EventLog(Logger logger) {
+        this.logger = logger;
+        ring = null;
+        out = null;
+        writer = null;
+    }
+
+    /**
+     * @param logger - the logger.
+     * @return - the event log installed on the logger, or one logging through the logger if there is none.
+     */
+    public static EventLog of(Logger logger) {
+        for (Handler handler : logger.getHandlers())
+            if (handler instanceof EventLog) return (EventLog) handler;
+        return new EventLog(logger);
+    }
+
+    /**
+     * Logs a game event (nothing is allocated on the way, and the event is dropped if the ring buffer is full).
+     *
+     * @param event - the event.
+     * @param a     - the first argument of the event (if it has one).
+     * @param b     - the second argument of the event (if it has two).
+     */
+    public void log(Event event, long a, long b) {
+        if (!logger.isLoggable(event.level)) return;
+        if (ring == null) {
+            StringBuilder sb = new StringBuilder();
+            event.appendTo(sb, a, b);
+            logger.log(event.level, sb.toString());
+            return;
+        }
+        Entry entry = claim();
+        if (entry == null) return;
+        entry.event = event;
+        entry.a = a;
+        entry.b = b;
+        publish(entry);
+    }
+
+    /**
+     * @param event - the event.
+     * @param a     - the argument of the event.
+     */
+    public void log(Event event, long a) {
+        log(event, a, 0);
+    }
+
+    /**
+     * @param event - the event (with no arguments).
+     */
+    public void log(Event event) {
+        log(event, 0, 0);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (ring == null || !isLoggable(record)) return;
+        Entry entry = claim();
+        if (entry == null) return;
+        entry.record = record;
+        publish(entry);
+    }
+
+    /**
+     * Waits (up to a second) until the events logged so far are written to the file.
+     */
+    @Override
+    public void flush() {
+        if (ring == null) return;
+        long target = claimed.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (flushed < target && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Writes the events logged so far, and closes the file (the events logged later are ignored).
+     */
+    @Override
+    public void close() {
+        if (ring == null || closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return - the number of events dropped because the ring buffer was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Sets the format of a line in the log file (as the format of SimpleFormatter: the date, the level and the
+     * message are the arguments).
+     *
+     * @param format - the format.
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @return - a free entry of the ring buffer for the next event, or null if the buffer is full (or closed).
+     */
+    private Entry claim() {
+        long sequence;
+        do {
+            if (closed) return null;
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.increment();
+                return null;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Entry entry = ring[(int) sequence & (CAPACITY - 1)];
+        entry.millis = System.currentTimeMillis();
+        entry.published = -(sequence + 1); // claimed but not ready yet
+        return entry;
+    }
+
+    private void publish(Entry entry) {
+        entry.published = -entry.published;
+        if (sleeping) LockSupport.unpark(writer);
+    }
+
+    /**
+     * The writer thread: writes the entries in order as they become ready, and flushes the file whenever it has
+     * nothing more to write (or after MAX_BATCH entries).
+     */
+    private void write() {
+        int batch = 0;
+        while (true) {
+            long next = consumed;
+            Entry entry = ring[(int) next & (CAPACITY - 1)];
+            if (entry.published == next + 1) {
+                writeEntry(entry);
+                entry.event = null;
+                entry.record = null;
+                consumed = next + 1;
+                if (++batch < MAX_BATCH) continue;
+            }
+            if (batch > 0) {
+                flushFile();
+                batch = 0;
+                continue;
+            }
+            if (closed && claimed.get() == next) break;
+            sleeping = true;
+            if (entry.published != next + 1 && !closed) LockSupport.parkNanos(this, IDLE_NANOS);
+            sleeping = false;
+        }
+
+        try {
+            long lost = dropped.sum();
+            if (lost > 0) {
+                line.setLength(0);
+                appendLine(System.currentTimeMillis(), Level.WARNING, null, 0, 0, lost + " log events were dropped");
+                out.write(line.toString());
+            }
+            out.close();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+        flushed = claimed.get();
+    }
+
+    private void writeEntry(Entry entry) {
+        line.setLength(0);
+        try {
+            if (entry.record != null) {
+                LogRecord record = entry.record;
+                if (getFormatter() != null) line.append(getFormatter().format(record));
+                else appendLine(record.getMillis(), record.getLevel(), null, 0, 0, record.getMessage());
+            } else appendLine(entry.millis, entry.event.level, entry.event, entry.a, entry.b, null);
+            out.write(line.toString());
+        } catch (IOException | RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    private void flushFile() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.FLUSH_FAILURE);
+        }
+        flushed = consumed;
+    }
+
+    /**
+     * Appends a line of the log to the line buffer: the message is either a game event and its arguments or a text.
+     */
+    private void appendLine(long millis, Level level, Event event, long a, long b, String message) {
+        String format = this.format;
+        if (!DEFAULT_FORMAT.equals(format)) {
+            if (event != null) {
+                event.appendTo(line, a, b);
+                message = line.toString();
+                line.setLength(0);
+            }
+            line.append(String.format(format, new Date(millis), level.getLocalizedName(), message));
+            return;
+        }
+
+        // [HH:mm:ss.SSS] [LEVEL  ] message
+        long time = (millis + timeZone.getOffset(millis)) % TimeUnit.DAYS.toMillis(1);
+        line.append('[');
+        appendDigits(time / 3_600_000, 2).append(':');
+        appendDigits(time / 60_000 % 60, 2).append(':');
+        appendDigits(time / 1000 % 60, 2).append('.');
+        appendDigits(time % 1000, 3).append("] [");
+        String name = level.getLocalizedName();
+        line.append(name);
+        for (int i = name.length(); i < 7; i++)
+            line.append(' ');
+        line.append("] ");
+        if (event != null) event.appendTo(line, a, b);
+        else line.append(message);
+        line.append(System.lineSeparator());
+    }
+
+    private StringBuilder appendDigits(long value, int digits) {
+        for (long power = digits == 3 ? 100 : 10; power > 1 && value < power; power /= 10)
+            line.append('0');
+        return line.append(value);
+    }
+}
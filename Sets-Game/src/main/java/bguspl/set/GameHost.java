@@ -0,0 +1,204 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.GameStats;
+import bguspl.set.ex.HashedWheelTimer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+import bguspl.set.ex.VirtualClock;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Hosts many isolated games of computer players in one process.
+ * Every game has its own Env, Table, Dealer and players (nothing is shared between games but the configuration, the
+ * set engine and the logger). The dealers run on a bounded pool of threads, so at most that many games are played at
+ * once and the rest wait for a free thread. The players of games on the wall clock run on a second pool shared by all
+ * the games (with a single timer thread for their freezes and key presses), and the players of simulated games (on a
+ * virtual clock) run on their dealer's thread.
+ */
+public class GameHost {
+
+    /**
+     * A game hosted by the host.
+     */
+    public class Game {
+
+        /**
+         * The id of the game (starting from 1).
+         */
+        public final int id;
+
+        private final Dealer dealer;
+        private volatile Future<?> future;
+
+        private Game(int id, Dealer dealer) {
+            this.id = id;
+            this.dealer = dealer;
+        }
+
+        /**
+         * Stops the game (a game that did not start yet ends as soon as it starts).
+         */
+        public void stop() throws InterruptedException {
+            dealer.terminate();
+        }
+
+        /**
+         * Waits for the game to end.
+         *
+         * @return - the statistics of the game.
+         */
+        public GameStats await() throws InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("game " + id + " failed", e.getCause());
+            }
+            return dealer.stats();
+        }
+
+        /**
+         * @return - true iff the game ended.
+         */
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        /**
+         * @return - the statistics of the game (complete once the game is done).
+         */
+        public GameStats stats() {
+            return dealer.stats();
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+
+    /**
+     * The threads the dealers run on, and the threads the players of the games on the wall clock run on.
+     */
+    private final ExecutorService dealers;
+    private final ExecutorService players;
+
+    /**
+     * The timer shared by the players of the games on the wall clock, and its thread.
+     */
+    private final HashedWheelTimer timer;
+    private final Thread timerThread;
+
+    private final AtomicInteger gamesStarted = new AtomicInteger();
+    private final AtomicInteger gamesEnded = new AtomicInteger();
+    private final LongAdder setsFound = new LongAdder();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder penalties = new LongAdder();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * @param logger  - the logger shared by the games.
+     * @param config  - the configuration of the games (its human players are ignored: all the players are computers).
+     * @param util    - the set engine shared by the games.
+     * @param threads - the number of games played at once (0 for one per processor).
+     */
+    public GameHost(Logger logger, Config config, Util util, int threads) {
+        this.logger = logger;
+        this.config = config;
+        this.util = util;
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger dealerThreads = new AtomicInteger();
+        dealers = Executors.newFixedThreadPool(threads,
+                task -> new Thread(task, "dealer-" + dealerThreads.incrementAndGet()));
+        AtomicInteger playerThreads = new AtomicInteger();
+        players = Executors.newFixedThreadPool(config.playerThreads,
+                task -> new Thread(task, "host-players-" + playerThreads.incrementAndGet()));
+        timer = new HashedWheelTimer(logger, Dealer.TIMER_TICK_MILLIS, Dealer.TIMER_WHEEL_SIZE);
+        timerThread = new Thread(timer, "host-timer");
+        timerThread.start();
+    }
+
+    /**
+     * Creates a game and queues it to be played.
+     *
+     * @param simulated - true iff the game should run on a virtual clock (as fast as possible).
+     * @return - the game.
+     */
+    public Game startGame(boolean simulated) {
+        Clock clock = simulated ? new VirtualClock() : Clock.SYSTEM;
+        Env env = new Env(logger, config, new NullUserInterface(), util, clock);
+        Table table = new Table(env);
+        Player[] gamePlayers = new Player[config.players];
+        Dealer dealer = new Dealer(env, table, gamePlayers, simulated ? null : players, simulated ? null : timer);
+        for (int i = 0; i < gamePlayers.length; i++)
+            gamePlayers[i] = new Player(env, dealer, table, i, false);
+
+        Game game = new Game(gamesStarted.incrementAndGet(), dealer);
+        game.future = dealers.submit(() -> {
+            try {
+                dealer.run();
+            } finally {
+                gameEnded(dealer.stats());
+            }
+        });
+        return game;
+    }
+
+    private void gameEnded(GameStats stats) {
+        setsFound.add(stats.setsFound());
+        claims.add(stats.claims());
+        penalties.add(stats.penalties());
+        gamesEnded.incrementAndGet();
+    }
+
+    /**
+     * Stops accepting games, and waits for the games started to end.
+     */
+    public void shutdown() throws InterruptedException {
+        dealers.shutdown();
+        dealers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        players.shutdown();
+        players.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        timer.stop();
+        timerThread.join();
+    }
+
+    /**
+     * @return - the number of games started.
+     */
+    public int gamesStarted() {
+        return gamesStarted.get();
+    }
+
+    /**
+     * @return - the number of games that ended.
+     */
+    public int gamesEnded() {
+        return gamesEnded.get();
+    }
+
+    /**
+     * @return - the number of games that ended per minute since the host was created.
+     */
+    public double gamesPerMinute() {
+        return gamesEnded.get() * 60e9 / Math.max(1, System.nanoTime() - startTime);
+    }
+
+    /**
+     * @return - a summary of the games that ended.
+     */
+    @Override
+    public String toString() {
+        int ended = Math.max(1, gamesEnded.get());
+        return String.format("%d/%d games ended (%.0f games per minute), average per game: sets=%.2f claims=%.2f "
+                        + "penalties=%.2f", gamesEnded.get(), gamesStarted.get(), gamesPerMinute(),
+                setsFound.doubleValue() / ended, claims.doubleValue() / ended, penalties.doubleValue() / ended);
+    }
+}
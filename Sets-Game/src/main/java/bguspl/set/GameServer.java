@@ -0,0 +1,348 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A game server for remote players and spectators, on a single thread with a non-blocking NIO selector.
+ * The server subscribes to the user interface events of the game (see UiEventBus) and sends them to every client as
+ * state deltas (encoded as in UiEvent), and passes the slot presses of remote players to Player.keyPressed.
+ * <p>
+ * The protocol (big-endian):
+ * <ul>
+ * <li>client to server: JOIN [1][player u8] (0xFF to spectate) and PRESS [2][slot u16].</li>
+ * <li>server to client: WELCOME [0x80][player u8 (0xFF for a spectator)][rows u8][columns u8][players u8], then the
+ * current state as deltas, then every delta as it happens.</li>
+ * </ul>
+ * Only human players can be played remotely, one connection each (a client asking for a player that is taken or not
+ * human spectates instead). Every connection has its own write buffer, and a client too slow to take the deltas (with
+ * more than MAX_PENDING_BYTES waiting) is disconnected rather than slowing the server down. The events waiting for the
+ * server thread are bounded too (MAX_QUEUED_EVENTS): when the server falls behind, the bus thread calling accept waits
+ * for it, so the events back up into the server's queue on the bus (which drops them and resyncs the server).
+ */
+public class GameServer implements Runnable, Consumer<UiEvent> {
+
+    /**
+     * The messages of the protocol.
+     */
+    public static final byte JOIN = 1;
+    public static final byte PRESS = 2;
+    public static final byte WELCOME = (byte) 0x80;
+    public static final int SPECTATOR = 0xFF;
+
+    /**
+     * The most bytes waiting to be sent to a client.
+     */
+    private static final int MAX_PENDING_BYTES = 256 * 1024;
+
+    /**
+     * The most events waiting for the server thread, and how long accept waits for room before checking that the
+     * server still runs.
+     */
+    private static final int MAX_QUEUED_EVENTS = 4096;
+    private static final long ACCEPT_WAIT_MILLIS = 100;
+
+    /**
+     * A client connection (used by the server thread only).
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(64);
+        private ByteBuffer out = ByteBuffer.allocate(4096); // pending bytes, in write mode
+        private int player = -1; // -1 until the client joins
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final Player[] players;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    /**
+     * The events not sent yet, whether the server thread was woken up for them, and the events dropped as the server
+     * stopped.
+     */
+    private final BlockingQueue<UiEvent> events = new ArrayBlockingQueue<>(MAX_QUEUED_EVENTS);
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * The connections (the joined ones get the deltas), the connection playing every player (if any), and the encoded
+     * events to send in this round.
+     */
+    private final List<Connection> connections = new ArrayList<>();
+    private final Connection[] remotePlayers;
+    private ByteBuffer deltas = ByteBuffer.allocate(4096);
+
+    /**
+     * The state of the game as seen by the clients (so a client joining late gets it).
+     */
+    private final GameState state;
+
+    /**
+     * @param logger  - the logger of the game.
+     * @param config  - the game configuration.
+     * @param players - the players of the game (filled in by the caller).
+     * @param port    - the TCP port to listen on (0 for any free port).
+     */
+    public GameServer(Logger logger, Config config, Player[] players, int port) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        remotePlayers = new Connection[config.players];
+        state = new GameState(config);
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(new InetSocketAddress(port), 1024);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the TCP port the server listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Queues an event to be sent to the clients (called on the bus thread, and stops the server on DISPOSE). Waits
+     * while MAX_QUEUED_EVENTS are queued, and drops the event once the server stopped.
+     *
+     * @param event - the event.
+     */
+    @Override
+    public void accept(UiEvent event) {
+        try {
+            while (!events.offer(event, ACCEPT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                selector.wakeup();
+                if (!running) {
+                    drop(1);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            drop(1);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    private void drop(int count) {
+        if (dropped.getAndAdd(count) == 0) logger.warning("game server stopped, dropping the events it did not send");
+    }
+
+    /**
+     * Stops the server (the events queued so far are sent first, as far as the clients take them right away).
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+                sendEvents();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) acceptClients();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) read(connection);
+                            if (key.isValid() && key.isWritable()) write(connection);
+                        } catch (RuntimeException e) {
+                            // a bad client is disconnected, the server and the other clients go on
+                            logger.log(Level.WARNING, "disconnecting a client that failed the server", e);
+                            close(connection);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            sendEvents();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "game server failed", e);
+        } finally {
+            running = false;
+            int unsent = events.size();
+            events.clear();
+            if (unsent > 0) drop(unsent);
+            for (Connection connection : new ArrayList<>(connections))
+                close(connection);
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void acceptClients() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            key.attach(connection);
+            connections.add(connection);
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (in.remaining() >= 2) {
+            byte type = in.get(in.position());
+            if (type == JOIN) {
+                in.get();
+                join(connection, in.get() & 0xFF);
+            } else if (type == PRESS) {
+                if (in.remaining() < 3) break;
+                in.get();
+                int slot = in.getShort() & 0xFFFF;
+                if (connection.player >= 0 && connection.player != SPECTATOR
+                        && remotePlayers[connection.player] == connection && slot < config.tableSize)
+                    players[connection.player].keyPressed(slot);
+            } else {
+                close(connection); // not speaking the protocol
+                return;
+            }
+        }
+        in.compact();
+        if (connection.key.isValid()) flush(connection);
+    }
+
+    /**
+     * Welcomes a client as a player (if the player is human and free) or a spectator, and sends it the current state.
+     */
+    private void join(Connection connection, int player) {
+        if (connection.player >= 0) return; // joined already
+        if (player < config.humanPlayers && remotePlayers[player] == null) {
+            remotePlayers[player] = connection;
+            connection.player = player;
+        } else connection.player = SPECTATOR;
+
+        ByteBuffer snapshot = ByteBuffer.allocate(5 + state.maxEncodedSize());
+        snapshot.put(WELCOME).put((byte) connection.player).put((byte) config.rows).put((byte) config.columns)
+                .put((byte) config.players);
+        state.forEachEvent(event -> event.writeTo(snapshot));
+        snapshot.flip();
+        append(connection, snapshot);
+    }
+
+    /**
+     * Encodes the events queued since the last round once, and sends them to all the joined clients.
+     */
+    private void sendEvents() {
+        deltas.clear();
+        for (UiEvent event; (event = events.poll()) != null; ) {
+            if (deltas.remaining() < event.encodedSize()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * deltas.capacity(), deltas.position() + event.encodedSize()));
+                deltas.flip();
+                deltas = larger.put(deltas);
+            }
+            event.writeTo(deltas);
+            state.apply(event);
+            if (event.type == UiEvent.Type.DISPOSE) running = false;
+        }
+        if (deltas.position() == 0) return;
+        deltas.flip();
+        for (Connection connection : new ArrayList<>(connections))
+            if (connection.player >= 0) append(connection, deltas.duplicate());
+    }
+
+    /**
+     * Adds bytes to a client's write buffer and sends what the client takes right away.
+     */
+    private void append(Connection connection, ByteBuffer bytes) {
+        if (connection.out.remaining() < bytes.remaining()) {
+            int needed = connection.out.position() + bytes.remaining();
+            if (needed > MAX_PENDING_BYTES) {
+                logger.warning("disconnecting a client too slow to take the game state ("
+                        + connection.out.position() + " bytes pending)");
+                close(connection);
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_PENDING_BYTES, Math.max(2 * connection.out.capacity(), needed)));
+            connection.out.flip();
+            connection.out = larger.put(connection.out);
+        }
+        connection.out.put(bytes);
+        flush(connection);
+    }
+
+    private void write(Connection connection) {
+        flush(connection);
+    }
+
+    /**
+     * Sends the pending bytes of a client as far as its socket takes them, and waits for it to be writable if any
+     * are left.
+     */
+    private void flush(Connection connection) {
+        ByteBuffer out = connection.out;
+        if (out.position() > 0) {
+            out.flip();
+            try {
+                connection.channel.write(out);
+            } catch (IOException e) {
+                close(connection);
+                return;
+            }
+            out.compact();
+        }
+        int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (connection.key.interestOps() != ops) connection.key.interestOps(ops);
+    }
+
+    private void close(Connection connection) {
+        connections.remove(connection);
+        if (connection.player >= 0 && connection.player < remotePlayers.length
+                && remotePlayers[connection.player] == connection)
+            remotePlayers[connection.player] = null;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+    }
+}
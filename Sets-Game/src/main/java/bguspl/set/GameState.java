@@ -0,0 +1,83 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The state of a game as shown by its user interface, kept up to date from the user interface events (so a user
+ * interface that lost events can be brought back to it, a spectator joining late gets it, and a replay can write it as
+ * a keyframe).
+ */
+class GameState {
+
+    private final int[] cards;
+    private final boolean[][] tokens;
+    private final long[] freezes;
+    private final int[] scores;
+    private UiEvent clock;
+    private UiEvent winners;
+
+    /**
+     * @param config - the game configuration.
+     */
+    GameState(Config config) {
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokens = new boolean[config.players][config.tableSize];
+        freezes = new long[config.players];
+        scores = new int[config.players];
+    }
+
+    /**
+     * Updates the state with an event.
+     *
+     * @param event - the event.
+     */
+    void apply(UiEvent event) {
+        switch (event.type) {
+            case PLACE_CARD: cards[event.slot] = event.player; break;
+            case REMOVE_CARD: cards[event.slot] = -1; break;
+            case PLACE_TOKEN: tokens[event.player][event.slot] = true; break;
+            case REMOVE_ALL_TOKENS:
+                for (boolean[] playerTokens : tokens)
+                    Arrays.fill(playerTokens, false);
+                break;
+            case REMOVE_TOKENS:
+                for (boolean[] playerTokens : tokens)
+                    playerTokens[event.slot] = false;
+                break;
+            case REMOVE_TOKEN: tokens[event.player][event.slot] = false; break;
+            case COUNTDOWN: case ELAPSED: clock = event; break;
+            case FREEZE: freezes[event.player] = event.value; break;
+            case SCORE: scores[event.player] = (int) event.value; break;
+            case ANNOUNCE_WINNER: winners = event; break;
+            default: break;
+        }
+    }
+
+    /**
+     * Produces the events that bring a user interface in any state to this state.
+     *
+     * @param sink - called with every event, in order.
+     */
+    void forEachEvent(Consumer<UiEvent> sink) {
+        sink.accept(UiEvent.REMOVE_ALL_TOKENS);
+        for (int slot = 0; slot < cards.length; slot++)
+            sink.accept(cards[slot] >= 0 ? UiEvent.placeCard(cards[slot], slot) : UiEvent.removeCard(slot));
+        for (int player = 0; player < scores.length; player++) {
+            for (int slot = 0; slot < cards.length; slot++)
+                if (tokens[player][slot]) sink.accept(UiEvent.placeToken(player, slot));
+            sink.accept(UiEvent.score(player, scores[player]));
+            sink.accept(UiEvent.freeze(player, freezes[player]));
+        }
+        if (clock != null) sink.accept(clock);
+        if (winners != null) sink.accept(winners);
+    }
+
+    /**
+     * @return - the most bytes forEachEvent's events take encoded (with UiEvent.writeTo).
+     */
+    int maxEncodedSize() {
+        return 1 + 5 * cards.length * (1 + scores.length) + 12 * scores.length + 6 + 2 + scores.length;
+    }
+}
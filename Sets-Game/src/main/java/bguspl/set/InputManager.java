@@ -5,6 +5,7 @@ import bguspl.set.ex.Player;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -16,11 +17,15 @@ class InputManager extends KeyAdapter {
     private final Player[] players;
     int[] keyMap = new int[MAX_KEY_CODE + 1];
     int[] keyToSlot = new int[MAX_KEY_CODE + 1];
+    private final EventLog events;
     private final Logger logger;
+    private final KeyTrace trace;
 
-    public InputManager(Logger logger, Config config, Player[] players) {
+    public InputManager(Logger logger, Config config, Player[] players, KeyTrace trace) {
         this.players = players;
+        this.events = EventLog.of(logger);
         this.logger = logger;
+        this.trace = trace;
 
         // initialize the keys
         for (int player = 0; player < config.players; ++player)
@@ -42,9 +47,14 @@ class InputManager extends KeyAdapter {
         // dispatch the key event to the player according to the key map
         int keyCode = e.getKeyCode();
         int player = keyMap[keyCode] - 1;
-        if (player >= 0){
-            logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
-            players[player].keyPressed(keyToSlot[keyCode]);
+        if (player >= 0 && players[player] != null){ // no players when playing a replay back
+            events.log(EventLog.Event.KEY_PRESSED, keyCode, player + 1);
+            // the time the key was pressed, for the trace of the key press (the event time is on the wall clock)
+            long pressedNanos = System.nanoTime()
+                    - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - e.getWhen()));
+            players[player].keyPressed(keyToSlot[keyCode], pressedNanos);
+        } else if (keyCode == KeyEvent.VK_F12 && trace.enabled()) {
+            logger.info(trace.dump());
         }
     }
 }
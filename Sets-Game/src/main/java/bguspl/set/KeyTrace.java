@@ -0,0 +1,183 @@
+package bguspl.set;
+
+import bguspl.set.ex.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traces key presses end to end: every press gets an id when it comes in, and is stamped (with System.nanoTime) at
+ * each stage on its way through the game, up to the user interface being notified of the verdict (the painting itself
+ * is not traced). The time from the previous stage and from the press itself are recorded in a histogram per stage, to
+ * be dumped at any time.
+ * <p>
+ * The traces in flight are kept in a ring of TRACES_IN_FLIGHT entries, where a trace that is not completed by the time
+ * its entry is reused is dropped. The id of an entry guards its times: a thread stamping a trace (or reusing the
+ * entry) first swaps the id for BUSY, and puts an id back when done, so the times are never read or written with the
+ * id of another trace, and are published to the next thread by the atomic id. When tracing is off, begin returns NONE
+ * and the stamps do nothing.
+ */
+public class KeyTrace {
+
+    /**
+     * The stages of a key press, in order.
+     */
+    public enum Stage {
+        INPUT,      // the key was pressed (the time of the input event, or of the press of a remote or AI player)
+        DISPATCHED, // Player.keyPressed was called
+        POLLED,     // the player took the press from its mailbox
+        TOKEN,      // the player placed or removed the token (and the user interface was updated)
+        CLAIMED,    // the press completed a set, and the dealer took the claim from its queue
+        DECIDED,    // the dealer decided the claim
+        UI_NOTIFIED // the dealer passed the verdict (and the cards of a legal set) to the user interface
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    /**
+     * The id of no trace (the press is not traced).
+     */
+    public static final long NONE = -1;
+
+    /**
+     * The id of an entry of the ring while a thread stamps it.
+     */
+    private static final long BUSY = -2;
+
+    /**
+     * The number of traces in flight kept (a power of 2).
+     */
+    private static final int TRACES_IN_FLIGHT = 1024;
+
+    private final boolean enabled;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Per entry of the ring: the id of the trace in it (NONE or BUSY), the time of its press and of its last stage
+     * stamped (guarded by the id).
+     */
+    private final AtomicLongArray ids = new AtomicLongArray(TRACES_IN_FLIGHT);
+    private final long[] starts = new long[TRACES_IN_FLIGHT];
+    private final long[] lasts = new long[TRACES_IN_FLIGHT];
+
+    /**
+     * Per stage: the time from the previous stage stamped, and from the press.
+     */
+    private final LatencyHistogram[] fromPrevious = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram[] fromInput = new LatencyHistogram[STAGES.length];
+
+    /**
+     * @param enabled - whether to trace the key presses (see Config.traceKeys).
+     */
+    public KeyTrace(boolean enabled) {
+        this.enabled = enabled;
+        for (int entry = 0; entry < TRACES_IN_FLIGHT; entry++)
+            ids.set(entry, NONE);
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            fromPrevious[stage] = new LatencyHistogram();
+            fromInput[stage] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return - true iff the key presses are traced.
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the trace of a key press, and stamps it as dispatched.
+     *
+     * @param pressedNanos - the time (System.nanoTime) the key was pressed.
+     * @return - the id of the trace (NONE if tracing is off).
+     */
+    public long begin(long pressedNanos) {
+        if (!enabled) return NONE;
+        long id = nextId.getAndIncrement();
+        int entry = (int) id & (TRACES_IN_FLIGHT - 1);
+        long previous;
+        while ((previous = ids.get(entry)) == BUSY || !ids.compareAndSet(entry, previous, BUSY))
+            Thread.yield(); // the previous trace of the entry is being stamped (for a few instructions)
+        if (previous != NONE) dropped.incrementAndGet(); // overwritten before it was completed
+        starts[entry] = lasts[entry] = pressedNanos;
+        ids.set(entry, id);
+        stamp(id, Stage.DISPATCHED);
+        return id;
+    }
+
+    /**
+     * Stamps a stage of a trace.
+     *
+     * @param id    - the id of the trace (nothing is stamped for NONE, or a trace dropped meanwhile).
+     * @param stage - the stage the key press reached.
+     */
+    public void stamp(long id, Stage stage) {
+        stamp(id, stage, id);
+    }
+
+    /**
+     * Stamps a stage of a trace, and leaves the entry with the given id.
+     */
+    private void stamp(long id, Stage stage, long next) {
+        if (id < 0) return;
+        int entry = (int) id & (TRACES_IN_FLIGHT - 1);
+        if (!ids.compareAndSet(entry, id, BUSY)) return;
+        long now = System.nanoTime();
+        long fromLast = now - lasts[entry], fromStart = now - starts[entry];
+        lasts[entry] = now;
+        ids.set(entry, next);
+        fromPrevious[stage.ordinal()].record(fromLast);
+        fromInput[stage.ordinal()].record(fromStart);
+    }
+
+    /**
+     * Stamps the last stage of a trace, and completes it.
+     *
+     * @param id    - the id of the trace.
+     * @param stage - the last stage the key press reached.
+     */
+    public void end(long id, Stage stage) {
+        stamp(id, stage, NONE);
+    }
+
+    /**
+     * Completes a trace of a key press that was ignored (the player could not play, or had enough presses pending).
+     *
+     * @param id - the id of the trace.
+     */
+    public void ignore(long id) {
+        if (id < 0) return;
+        ids.compareAndSet((int) id & (TRACES_IN_FLIGHT - 1), id, NONE);
+    }
+
+    /**
+     * @param stage - a stage.
+     * @return - the time the key presses took from the previous stage to this one.
+     */
+    public LatencyHistogram fromPrevious(Stage stage) {
+        return fromPrevious[stage.ordinal()];
+    }
+
+    /**
+     * @param stage - a stage.
+     * @return - the time the key presses took from the press to this stage.
+     */
+    public LatencyHistogram fromInput(Stage stage) {
+        return fromInput[stage.ordinal()];
+    }
+
+    /**
+     * @return - the latencies of every stage so far (from the previous stage and from the input).
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder("key press latencies (" + nextId.get() + " presses traced, "
+                + dropped.get() + " dropped):");
+        for (int stage = 1; stage < STAGES.length; stage++)
+            dump.append(System.lineSeparator()).append(String.format("  %-11s from previous stage: %s%n"
+                            + "  %-11s from input:          %s", STAGES[stage], fromPrevious[stage], "",
+                    fromInput[stage]));
+        return dump.toString();
+    }
+}
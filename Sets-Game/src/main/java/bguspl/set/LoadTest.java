@@ -0,0 +1,187 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.LatencyHistogram;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * A load test of the game server over the loopback interface: plays a game with two remote players (pressing random
+ * slots) watched by many remote spectators, all of them clients on a single selector thread, and reports the time to
+ * join, the deltas delivered and whether every client ended up with the same table as the game.
+ */
+public class LoadTest {
+
+    /**
+     * How often the remote players press a slot.
+     */
+    private static final long PRESS_INTERVAL_MILLIS = 20;
+
+    /**
+     * A client of the game server.
+     */
+    private static class Client {
+        private final SocketChannel channel;
+        private final int player;
+        private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        private final long connectTime = System.nanoTime();
+        private final int[] cards;
+        private boolean welcomed;
+        private boolean disposed;
+        private long deltas;
+        private long bytes;
+
+        private Client(SocketChannel channel, int player, int tableSize) {
+            this.channel = channel;
+            this.player = player;
+            cards = new int[tableSize];
+            Arrays.fill(cards, -1);
+        }
+    }
+
+    /**
+     * @param args - the number of spectators (500 by default) and the number of seconds to play (20 by default).
+     */
+    public static void main(String[] args) throws Exception {
+        int spectators = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+
+        Logger logger = Logger.getLogger("SetLoadTestLogger");
+        logger.setUseParentHandlers(false);
+        Properties properties = Config.loadProperties("config.properties", logger);
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("HumanPlayers", "2");
+        properties.setProperty("ComputerPlayers", "2");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("Hints", "False");
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+
+        // the game, its server, and the table as the game sees it
+        Player[] players = new Player[config.players];
+        UiEventBus bus = new UiEventBus(logger, config);
+        GameServer server = new GameServer(logger, config, players, 0);
+        bus.subscribe("network", server, 4096, UiEventBus.Backpressure.DROP_OLDEST);
+        int[] truth = new int[config.tableSize];
+        Arrays.fill(truth, -1);
+        bus.subscribe("truth", event -> {
+            if (event.type == UiEvent.Type.PLACE_CARD) truth[event.slot] = event.player;
+            else if (event.type == UiEvent.Type.REMOVE_CARD) truth[event.slot] = -1;
+        }, 4096, UiEventBus.Backpressure.BLOCK);
+        Thread serverThread = new Thread(server, "server");
+        serverThread.start();
+
+        Env env = new Env(logger, config, bus, util);
+        Table table = new Table(env);
+        Dealer dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, i < config.humanPlayers);
+
+        // connect the clients (the first ones play, the rest spectate)
+        Selector selector = Selector.open();
+        Client[] clients = new Client[config.humanPlayers + spectators];
+        for (int i = 0; i < clients.length; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress("127.0.0.1", server.port()));
+            clients[i] = new Client(channel, i < config.humanPlayers ? i : GameServer.SPECTATOR, config.tableSize);
+            channel.register(selector, SelectionKey.OP_CONNECT, clients[i]);
+        }
+        LatencyHistogram joinTime = new LatencyHistogram();
+
+        Thread dealerThread = null;
+        long start = System.nanoTime(), end = Long.MAX_VALUE, lastPress = 0;
+        long deadline = start + 30_000_000_000L; // to join (and then to end)
+        int open = clients.length, welcomed = 0;
+        while (open > 0 && System.nanoTime() < deadline) {
+            selector.select(PRESS_INTERVAL_MILLIS);
+            for (SelectionKey key : selector.selectedKeys()) {
+                Client client = (Client) key.attachment();
+                if (key.isConnectable()) {
+                    client.channel.finishConnect();
+                    client.channel.write(ByteBuffer.wrap(new byte[]{GameServer.JOIN, (byte) client.player}));
+                    key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    int read = client.channel.read(client.in);
+                    if (read < 0) {
+                        key.cancel();
+                        client.channel.close();
+                        open--;
+                        continue;
+                    }
+                    client.bytes += read;
+                    client.in.flip();
+                    if (!client.welcomed && client.in.remaining() >= 5) {
+                        client.in.position(client.in.position() + 5);
+                        client.welcomed = true;
+                        welcomed++;
+                        joinTime.record(System.nanoTime() - client.connectTime);
+                    }
+                    for (UiEvent event; client.welcomed && (event = UiEvent.readFrom(client.in)) != null; ) {
+                        client.deltas++;
+                        if (event.type == UiEvent.Type.PLACE_CARD) client.cards[event.slot] = event.player;
+                        else if (event.type == UiEvent.Type.REMOVE_CARD) client.cards[event.slot] = -1;
+                        else if (event.type == UiEvent.Type.DISPOSE) client.disposed = true;
+                    }
+                    client.in.compact();
+                }
+            }
+            selector.selectedKeys().clear();
+
+            // start the game once everyone joined, and stop it after the given time
+            if (dealerThread == null && welcomed == clients.length) {
+                dealerThread = new Thread(dealer, "dealer");
+                dealerThread.start();
+                end = System.nanoTime() + seconds * 1_000_000_000L;
+                deadline = end + 10_000_000_000L;
+            }
+            if (dealerThread != null && dealerThread.isAlive()
+                    && System.nanoTime() > lastPress + PRESS_INTERVAL_MILLIS * 1_000_000) {
+                lastPress = System.nanoTime();
+                for (int player = 0; player < config.humanPlayers; player++) {
+                    ByteBuffer press = ByteBuffer.allocate(3).put(GameServer.PRESS)
+                            .putShort((short) ThreadLocalRandom.current().nextInt(config.tableSize));
+                    press.flip();
+                    clients[player].channel.write(press);
+                }
+            }
+            if (dealerThread != null && System.nanoTime() > end && dealerThread.isAlive()) {
+                dealer.terminate();
+                dealerThread.join();
+                bus.dispose(); // the server sends DISPOSE to everyone and disconnects them
+            }
+        }
+        serverThread.join(5000);
+
+        long duration = System.nanoTime() - start;
+        long minDeltas = Long.MAX_VALUE, maxDeltas = 0, deltas = 0, bytes = 0;
+        int disposed = 0, consistent = 0;
+        for (Client client : clients) {
+            minDeltas = Math.min(minDeltas, client.deltas);
+            maxDeltas = Math.max(maxDeltas, client.deltas);
+            deltas += client.deltas;
+            bytes += client.bytes;
+            if (client.disposed) disposed++;
+            if (Arrays.equals(client.cards, truth)) consistent++;
+        }
+        System.out.printf("%d clients (%d players, %d spectators), %d welcomed, join time: %s%n", clients.length,
+                config.humanPlayers, spectators, welcomed, joinTime);
+        System.out.printf("deltas per client: min=%d max=%d, %d deltas (%d bytes) delivered in %.1f s "
+                        + "(%.0f deltas/s)%n", minDeltas, maxDeltas, deltas, bytes, duration / 1e9,
+                deltas / (duration / 1e9));
+        System.out.printf("%d/%d clients got the end of the game, %d/%d ended with the table of the game%n",
+                disposed, clients.length, consistent, clients.length);
+        int[] scores = Arrays.stream(players).mapToInt(Player::score).toArray();
+        System.out.println("final scores: " + Arrays.toString(scores));
+    }
+}
@@ -6,6 +6,7 @@ import bguspl.set.ex.Table;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -17,17 +18,33 @@ import java.util.logging.*;
  */
 public class Main {
 
-    private static Dealer dealer;
-    private static Thread mainThread;
+    /**
+     * The most user interface events queued for every subscriber of the user interface events.
+     */
+    private static final int UI_QUEUE_CAPACITY = 4096;
+
+    /**
+     * The name of the log file and the replay file of this run (just to make them nicer :)
+     */
+    private static final String SESSION = new SimpleDateFormat("M-d_HH-mm-ss").format(Calendar.getInstance().getTime());
+
+    private final Logger logger;
+    private final Thread mainThread;
+    private volatile Dealer dealer;
+    private volatile boolean xButtonPressed = false;
 
-    private static boolean xButtonPressed = false;
-    private static Logger logger;
+    private Main(Logger logger) {
+        this.logger = logger;
+        mainThread = Thread.currentThread();
+    }
 
-    public static void xButtonPressed() throws InterruptedException {
-        if (logger != null) logger.severe("exit button pressed");
+    private void xButtonPressed() {
+        logger.info("exit button pressed");
         xButtonPressed = true;
-        if (dealer != null) dealer.terminate();
-        mainThread.join();
+        try {
+            if (dealer != null) dealer.terminate();
+            mainThread.join();
+        } catch (InterruptedException ignored) {}
     }
 
     /**
@@ -36,28 +53,53 @@ public class Main {
      * @param args - unused.
      */
     public static void main(String[] args) {
+        new Main(initLogger()).run();
+    }
 
-        mainThread = Thread.currentThread();
+    private void run() {
 
         // create the game environment objects
-        logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
         Config config = new Config(logger, "config.properties");
         Util util = new UtilImpl(config);
 
         Player[] players = new Player[config.players];
-        UserInterface ui = null;
+        UiEventBus bus = new UiEventBus(logger, config);
+        KeyTrace trace = new KeyTrace(config.traceKeys);
         try {
-            ui = new UserInterfaceSwing(logger, config, players);
+            // the swing view applies the events on its own thread, but shares a lock with the event dispatch thread,
+            // so a busy window must not stall the game: when it falls behind it drops events and is resynced with the
+            // current state (a human player still sees every card on the table)
+            UserInterface swing = new UserInterfaceSwing(logger, config, players, this::xButtonPressed, trace);
+            bus.subscribe("swing", swing, UI_QUEUE_CAPACITY, UiEventBus.Backpressure.DROP_OLDEST);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
-                logger.severe("warning: running with human players with no user interface");
+                logger.warning("running with human players with no user interface");
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
+        GameServer server = null;
+        ThreadLogger serverThread = null;
+        if (config.serverPort > 0) try {
+            server = new GameServer(logger, config, players, config.serverPort);
+            // the network does I/O, so it never blocks the game: if it falls behind it loses events and is resynced
+            // with the state of the game (see UiEventBus)
+            bus.subscribe("network", server, UI_QUEUE_CAPACITY, UiEventBus.Backpressure.DROP_OLDEST);
+            serverThread = new ThreadLogger(server, "server", logger);
+            serverThread.startWithLog();
+        } catch (IOException e) {
+            logger.severe("error starting the game server on port " + config.serverPort + ": " + e);
+        }
+        if (config.recordReplay) try {
+            ReplayRecorder recorder = new ReplayRecorder(logger, config, Paths.get("./logs/" + SESSION + ".replay"));
+            // the disk does I/O as well: the recorder loses events and is resynced rather than block the game
+            bus.subscribe("replay", recorder, UI_QUEUE_CAPACITY, UiEventBus.Backpressure.DROP_OLDEST);
+        } catch (IOException e) {
+            logger.severe("error creating the replay file: " + e);
+        }
+        UserInterface ui = new UserInterfaceDecorator(logger, util, bus);
 
-        Env env = new Env(logger, config, ui, util);
+        Env env = new Env(logger, config, ui, util, Clock.SYSTEM, trace);
 
         // create the game entities
         Table table = new Table(env);
@@ -75,46 +117,55 @@ public class Main {
             if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
-            logger.severe("thanks for playing... it was fun!");
+            logger.info("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
-            if (!xButtonPressed) env.ui.dispose();
-            for (Handler h : logger.getHandlers()) h.flush();
+            // on the X button too: the window waits for this thread before the JVM exits, so the subscribers (the
+            // replay recorder above all) get the last events and close
+            env.ui.dispose();
+            if (server != null) {
+                server.stop();
+                try {
+                    serverThread.joinWithLog();
+                } catch (InterruptedException ignored) {}
+            }
+            for (Handler h : logger.getHandlers()) h.close();
         }
     }
 
     private static Logger initLogger() {
 
-        //just to make our log file nicer :)
-        SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
-        FileHandler handler;
+        java.util.logging.Logger logger = java.util.logging.Logger.getLogger("SetGameLogger");
+        logger.setUseParentHandlers(false);
+
         try {
             //noinspection ResultOfMethodCallIgnored
             new File("./logs/").mkdirs();
-            handler = new FileHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log");
+            // written asynchronously by a writer thread
+            new EventLog(logger, "./logs/" + SESSION + ".log");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        java.util.logging.Logger logger = java.util.logging.Logger.getLogger("SetGameLogger");
-        logger.setUseParentHandlers(false);
-        logger.addHandler(handler);
-        setLoggerLevelAndFormat(logger, Level.ALL, "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
+        setLoggerLevelAndFormat(logger, Level.ALL, EventLog.DEFAULT_FORMAT);
 
         return logger;
     }
 
     public static void setLoggerLevelAndFormat(Logger logger, Level level, String format) {
         Handler[] handlers = logger.getHandlers();
-        if (handlers != null) Arrays.stream(handlers).forEach(h -> h.setFormatter(new SimpleFormatter() {
-            // default format (with timestamp)  = "[%1$tF %1$tT] [%2$-7s] %3$s%n";
-            @Override
-            public synchronized String format(LogRecord lr) {
-                return String.format(format, new Date(lr.getMillis()),
-                        lr.getLevel().getLocalizedName(), lr.getMessage()
-                );
-            }
-        }));
+        if (handlers != null) Arrays.stream(handlers).forEach(h -> {
+            // the event log formats on its writer thread
+            if (h instanceof EventLog) ((EventLog) h).setFormat(format);
+            else h.setFormatter(new SimpleFormatter() {
+                // default format (with timestamp)  = "[%1$tF %1$tT] [%2$-7s] %3$s%n";
+                @Override
+                public String format(LogRecord lr) {
+                    return String.format(format, new Date(lr.getMillis()),
+                            lr.getLevel().getLocalizedName(), lr.getMessage()
+                    );
+                }
+            });
+        });
         logger.setLevel(level);
     }
 }
@@ -0,0 +1,266 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import static bguspl.set.ReplayFormat.*;
+
+/**
+ * Plays back a replay file (see ReplayRecorder) into a user interface. The file is memory mapped and indexed by its
+ * keyframes when opened, so seeking to any point in the game only applies the keyframe before it and the events in
+ * between. A file cut short (by a game that did not end properly) plays up to its last whole frame, and a damaged one
+ * up to the frame before the damage.
+ */
+public class Replay {
+
+    /**
+     * The game the replay is of.
+     */
+    public final int rows;
+    public final int columns;
+    public final int players;
+    public final int deckSize;
+    public final long startMillis;
+
+    private final MappedByteBuffer file;
+    private final int framesStart;
+    private final int framesEnd;
+    private final long events;
+    private final long duration;
+
+    /**
+     * The keyframes: their position in the file and their time (in microseconds since the game started).
+     */
+    private int[] keyframePositions = new int[16];
+    private long[] keyframeTimes = new long[16];
+    private int keyframes;
+
+    /**
+     * Where play starts: the frame to start from, and the time up to which events are applied without waiting.
+     */
+    private int position;
+    private long seekTarget;
+
+    /**
+     * Maps a replay file and indexes its keyframes.
+     *
+     * @param path - the replay file.
+     * @throws IOException - if the file cannot be read or is not a replay file.
+     */
+    public Replay(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("replay file too large: " + path);
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            file.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a replay file: " + path);
+            byte version = file.get();
+            if (version != VERSION) throw new IOException("unsupported replay version " + version + ": " + path);
+            rows = getVarInt(file);
+            columns = getVarInt(file);
+            players = getVarInt(file);
+            deckSize = getVarInt(file);
+            startMillis = getVarLong(file);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("corrupt replay header: " + path);
+        }
+        framesStart = position = file.position();
+
+        // index the keyframes, up to the last whole frame
+        long events = 0, time = 0;
+        int end = framesStart;
+        try {
+            while (file.hasRemaining()) {
+                byte kind = file.get();
+                int length = getVarInt(file);
+                if (length < 0 || length > file.remaining()) break;
+                ByteBuffer payload = slice(file.position(), length);
+                if (kind == KEYFRAME) {
+                    time = getVarLong(payload);
+                    addKeyframe(end, time);
+                } else if (kind == EVENT) {
+                    time += getVarLong(payload);
+                    events++;
+                }
+                file.position(file.position() + length);
+                end = file.position();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ignored) {
+            // a truncated tail
+        }
+        framesEnd = end;
+        this.events = events;
+        duration = time;
+    }
+
+    private void addKeyframe(int position, long time) {
+        if (keyframes == keyframePositions.length) {
+            keyframePositions = Arrays.copyOf(keyframePositions, 2 * keyframes);
+            keyframeTimes = Arrays.copyOf(keyframeTimes, 2 * keyframes);
+        }
+        keyframePositions[keyframes] = position;
+        keyframeTimes[keyframes++] = time;
+    }
+
+    private ByteBuffer slice(int position, int length) {
+        ByteBuffer slice = file.duplicate();
+        slice.position(position).limit(position + length);
+        return slice;
+    }
+
+    /**
+     * @return - the number of events in the replay.
+     */
+    public long events() {
+        return events;
+    }
+
+    /**
+     * @return - the time of the last event (in microseconds since the game started).
+     */
+    public long duration() {
+        return duration;
+    }
+
+    /**
+     * @return - the number of keyframes in the replay.
+     */
+    public int keyframes() {
+        return keyframes;
+    }
+
+    /**
+     * Makes the next play start at a point in the game.
+     *
+     * @param micros - the time to start at (in microseconds since the game started).
+     */
+    public void seek(long micros) {
+        int keyframe = Arrays.binarySearch(keyframeTimes, 0, keyframes, micros);
+        if (keyframe < 0) keyframe = -keyframe - 2; // the keyframe before
+        // several keyframes may share a time, take the first of them
+        while (keyframe > 0 && keyframeTimes[keyframe - 1] == keyframeTimes[keyframe]) keyframe--;
+        position = keyframe >= 0 ? keyframePositions[keyframe] : framesStart;
+        seekTarget = micros;
+    }
+
+    /**
+     * Plays the replay from the point seeked to (or the start) to the end. The user interface is first brought to the
+     * state at that point right away, then gets the events at their recorded pace divided by the speed.
+     *
+     * @param ui    - the user interface to play into (not disposed at the end).
+     * @param speed - the speed (2 for twice as fast as the game was played), or 0 for as fast as possible.
+     * @return - the number of events applied to the user interface.
+     */
+    public long play(UserInterface ui, double speed) {
+        ByteBuffer frames = slice(position, framesEnd - position);
+        long applied = 0, time = 0, originMicros = -1, originNanos = 0;
+        boolean synced = false;
+        while (frames.hasRemaining() && !Thread.currentThread().isInterrupted()) {
+            int start = frames.position();
+            try {
+                byte kind = frames.get();
+                int length = getVarInt(frames);
+                if (length < 0 || length > frames.remaining()) throw new IllegalArgumentException("bad frame length");
+                int next = frames.position() + length;
+                ByteBuffer payload = frames.duplicate();
+                payload.limit(next);
+                if (kind == KEYFRAME) {
+                    time = getVarLong(payload);
+                    if (!synced) { // later keyframes repeat what the events already did
+                        getVarLong(payload);
+                        for (int count = getVarInt(payload); count > 0; count--, applied++)
+                            getEvent(payload, players).applyTo(ui);
+                    }
+                } else if (kind == EVENT) {
+                    time += getVarLong(payload);
+                    UiEvent event = getEvent(payload, players);
+                    if (speed > 0 && time > seekTarget) {
+                        if (originMicros < 0) {
+                            originMicros = time;
+                            originNanos = System.nanoTime();
+                        }
+                        long due = originNanos + (long) (TimeUnit.MICROSECONDS.toNanos(time - originMicros) / speed);
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted())
+                            LockSupport.parkNanos(wait);
+                    }
+                    if (event.type != UiEvent.Type.DISPOSE) { // the caller decides when the user interface goes
+                        event.applyTo(ui);
+                        applied++;
+                    }
+                }
+                synced = true;
+                frames.position(next);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // a malformed frame (the file was indexed up to its last whole frame, but not checked inside them)
+                frames.position(start);
+                break;
+            }
+        }
+        position = frames.position();
+        seekTarget = 0;
+        return applied;
+    }
+
+    /**
+     * Plays a replay file into the swing user interface, or as fast as possible into no user interface when there is
+     * no display (and reports how long it took).
+     *
+     * @param args - the replay file, the speed (1 by default, 0 for as fast as possible) and the number of seconds into
+     *             the game to start at (0 by default).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: Replay <file> [speed] [start seconds]");
+            return;
+        }
+        Replay replay = new Replay(Paths.get(args[0]));
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        double startSeconds = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        System.out.println(String.format("%s: %dx%d table, %d players, %d events, %d keyframes, %.1f s",
+                args[0], replay.rows, replay.columns, replay.players, replay.events, replay.keyframes,
+                replay.duration / 1e6));
+
+        // the table of the replay, with the rest of the settings from the configuration file
+        Logger logger = Logger.getLogger("SetReplayLogger");
+        logger.setUseParentHandlers(false);
+        Properties properties = Config.loadProperties("config.properties", logger);
+        properties.setProperty("Rows", Integer.toString(replay.rows));
+        properties.setProperty("Columns", Integer.toString(replay.columns));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(replay.players));
+        Config config = new Config(logger, properties);
+        if (config.deckSize != replay.deckSize)
+            System.out.println("warning: the replay has a deck of " + replay.deckSize + " cards, the configuration "
+                    + config.deckSize);
+
+        UserInterface ui = new NullUserInterface();
+        if (speed > 0 && !GraphicsEnvironment.isHeadless()) {
+            Thread main = Thread.currentThread();
+            ui = new UserInterfaceSwing(logger, config, new Player[config.players], main::interrupt);
+        }
+        replay.seek((long) (startSeconds * 1e6));
+        long start = System.nanoTime();
+        long applied = replay.play(ui, speed);
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("played %d events in %.3f s (%.0f events/s)", applied, nanos / 1e9,
+                applied / (nanos / 1e9)));
+        ui.dispose();
+    }
+}
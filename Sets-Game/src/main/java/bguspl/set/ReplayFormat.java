@@ -0,0 +1,140 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary format of a replay file (see ReplayRecorder and Replay).
+ * <p>
+ * The file starts with a header: the magic bytes "SETR", a version byte, and the rows, columns, players and deck size
+ * of the game and the wall clock time it started (in milliseconds) as varints. Then come frames: a kind byte, the
+ * length of the payload as a varint, and the payload (so a reader can skip a frame, and a truncated last frame is
+ * detected). An EVENT frame holds the microseconds since the previous frame and a user interface event. A KEYFRAME
+ * holds the microseconds since the game started, the number of events recorded before it, and the events that bring a
+ * user interface to the state of the game at that point.
+ * <p>
+ * An event is its type byte followed by its arguments as varints (times and scores zigzag encoded).
+ */
+final class ReplayFormat {
+
+    static final byte[] MAGIC = {'S', 'E', 'T', 'R'};
+    static final byte VERSION = 1;
+    static final byte EVENT = 1;
+    static final byte KEYFRAME = 2;
+
+    private ReplayFormat() {
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the varint is longer than 10 bytes.
+     */
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        return (int) getVarLong(buffer);
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * @return - the most bytes an event takes encoded.
+     */
+    static int maxSize(UiEvent event) {
+        return 1 + 10 * (3 + (event.players == null ? 0 : event.players.length));
+    }
+
+    static void putEvent(ByteBuffer buffer, UiEvent event) {
+        buffer.put((byte) event.type.ordinal());
+        switch (event.type) {
+            case PLACE_CARD: case PLACE_TOKEN: case REMOVE_TOKEN:
+                putVarLong(buffer, event.player);
+                putVarLong(buffer, event.slot);
+                break;
+            case REMOVE_CARD: case REMOVE_TOKENS:
+                putVarLong(buffer, event.slot);
+                break;
+            case COUNTDOWN:
+                putVarLong(buffer, zigzag(event.value));
+                buffer.put((byte) (event.warn ? 1 : 0));
+                break;
+            case ELAPSED:
+                putVarLong(buffer, zigzag(event.value));
+                break;
+            case FREEZE: case SCORE: case CLAIM_CHECKED:
+                putVarLong(buffer, event.player);
+                putVarLong(buffer, zigzag(event.value));
+                break;
+            case ANNOUNCE_WINNER:
+                putVarLong(buffer, event.players.length);
+                for (int winner : event.players)
+                    putVarLong(buffer, winner);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param players - the number of players in the game (the most winners an event may announce).
+     * @throws IllegalArgumentException - if the buffer does not hold an event.
+     */
+    static UiEvent getEvent(ByteBuffer buffer, int players) {
+        int ordinal = buffer.get() & 0xFF;
+        UiEvent.Type[] types = UiEvent.Type.values();
+        if (ordinal >= types.length) throw new IllegalArgumentException("unknown event type " + ordinal);
+        switch (types[ordinal]) {
+            case PLACE_CARD: return UiEvent.placeCard(getVarInt(buffer), getVarInt(buffer));
+            case REMOVE_CARD: return UiEvent.removeCard(getVarInt(buffer));
+            case PLACE_TOKEN: return UiEvent.placeToken(getVarInt(buffer), getVarInt(buffer));
+            case REMOVE_ALL_TOKENS: return UiEvent.REMOVE_ALL_TOKENS;
+            case REMOVE_TOKENS: return UiEvent.removeTokens(getVarInt(buffer));
+            case REMOVE_TOKEN: return UiEvent.removeToken(getVarInt(buffer), getVarInt(buffer));
+            case COUNTDOWN: return UiEvent.countdown(unzigzag(getVarLong(buffer)), buffer.get() != 0);
+            case ELAPSED: return UiEvent.elapsed(unzigzag(getVarLong(buffer)));
+            case FREEZE: return UiEvent.freeze(getVarInt(buffer), unzigzag(getVarLong(buffer)));
+            case SCORE: return UiEvent.score(getVarInt(buffer), (int) unzigzag(getVarLong(buffer)));
+            case CLAIM_CHECKED: return UiEvent.claimChecked(getVarInt(buffer), (int) unzigzag(getVarLong(buffer)));
+            case ANNOUNCE_WINNER:
+                int count = getVarInt(buffer);
+                if (count < 0 || count > players || count > buffer.remaining())
+                    throw new IllegalArgumentException("bad winner count " + count);
+                int[] winners = new int[count];
+                for (int i = 0; i < winners.length; i++)
+                    winners[i] = getVarInt(buffer);
+                return UiEvent.announceWinner(winners);
+            default:
+                return UiEvent.DISPOSE;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package bguspl.set;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static bguspl.set.ReplayFormat.*;
+
+/**
+ * Records the user interface events of a game (the deals, the tokens, the verdicts on the claims, the scores, the
+ * freezes and the timer) into a replay file, with a keyframe of the whole state every KEYFRAME_INTERVAL events (see
+ * ReplayFormat). Subscribe it to the UiEventBus of the game: an event is stamped with the time it is handled (right
+ * after it was published, as the recorder only encodes it into a buffer), and the file is closed on DISPOSE.
+ */
+public class ReplayRecorder implements Consumer<UiEvent> {
+
+    /**
+     * The number of events between two keyframes.
+     */
+    static final int KEYFRAME_INTERVAL = 256;
+
+    private final Logger logger;
+    private final OutputStream out;
+    private final GameState state;
+    private final long startNanos = System.nanoTime();
+    private ByteBuffer payload = ByteBuffer.allocate(1024);
+    private long lastMicros;
+    private long events;
+    private boolean closed;
+
+    /**
+     * Creates the replay file and writes its header.
+     *
+     * @param logger - the logger of the game.
+     * @param config - the game configuration.
+     * @param file   - the replay file.
+     */
+    public ReplayRecorder(Logger logger, Config config, Path file) throws IOException {
+        this.logger = logger;
+        state = new GameState(config);
+        out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarLong(out, config.rows);
+        writeVarLong(out, config.columns);
+        writeVarLong(out, config.players);
+        writeVarLong(out, config.deckSize);
+        writeVarLong(out, System.currentTimeMillis());
+    }
+
+    /**
+     * Records an event (called on the bus thread).
+     *
+     * @param event - the event.
+     */
+    @Override
+    public void accept(UiEvent event) {
+        if (closed) return;
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        try {
+            if (events % KEYFRAME_INTERVAL == 0) writeKeyframe(micros);
+            payload.clear();
+            ensure(10 + maxSize(event));
+            putVarLong(payload, micros - lastMicros);
+            putEvent(payload, event);
+            writeFrame(EVENT);
+            lastMicros = micros;
+            events++;
+            state.apply(event);
+            if (event.type == UiEvent.Type.DISPOSE) {
+                closed = true;
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "replay recording failed", e);
+            closed = true;
+        }
+    }
+
+    /**
+     * Writes a keyframe (and flushes the file, so a recording cut short is readable up to the last keyframe or so).
+     */
+    private void writeKeyframe(long micros) throws IOException {
+        payload.clear();
+        putVarLong(payload, micros);
+        putVarLong(payload, events);
+        int[] count = {0, 0};
+        state.forEachEvent(event -> {
+            count[0]++;
+            count[1] += maxSize(event);
+        });
+        ensure(30 + count[1]);
+        putVarLong(payload, count[0]);
+        state.forEachEvent(event -> putEvent(payload, event));
+        writeFrame(KEYFRAME);
+        lastMicros = micros;
+        out.flush();
+    }
+
+    private void writeFrame(byte kind) throws IOException {
+        out.write(kind);
+        writeVarLong(out, payload.position());
+        out.write(payload.array(), 0, payload.position());
+    }
+
+    private void ensure(int bytes) {
+        if (payload.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * payload.capacity(), payload.position() + bytes));
+            payload.flip();
+            payload = larger.put(payload);
+        }
+    }
+}
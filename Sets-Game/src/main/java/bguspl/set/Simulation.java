@@ -0,0 +1,65 @@
+package bguspl.set;
+
+import bguspl.set.ex.GameStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Runs complete games of computer players as fast as possible and prints the statistics of each game.
+ * The games use the game's own Dealer, Table and Player classes with a virtual clock (time passes only when the dealer
+ * waits, so a turn timeout or a freeze costs nothing), no table delays and no user interface, and are played in
+ * parallel by a GameHost.
+ * The configuration is read from config.properties, with no human players.
+ */
+public class Simulation {
+
+    /**
+     * The game's main function for simulations.
+     *
+     * @param args - the number of games to run (1000 by default), and the number of games played at once (one per
+     *             processor by default).
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        Logger logger = Logger.getLogger("SetSimulationLogger");
+        logger.setUseParentHandlers(false);
+        Properties properties = Config.loadProperties("config.properties", logger);
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("Hints", "False");
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+
+        long sets = 0, reshuffles = 0, claims = 0, penalties = 0, duration = 0;
+        long start = System.nanoTime();
+        GameHost host = new GameHost(logger, config, util, threads);
+        try {
+            List<GameHost.Game> started = new ArrayList<>();
+            for (int game = 0; game < games; game++)
+                started.add(host.startGame(true));
+            for (GameHost.Game game : started) {
+                GameStats stats = game.await();
+                System.out.println("game " + game.id + ": " + stats);
+                sets += stats.setsFound();
+                reshuffles += stats.reshuffles();
+                claims += stats.claims();
+                penalties += stats.penalties();
+                duration += stats.durationMillis();
+            }
+        } finally {
+            host.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d games in %.2fs (%.0f games per minute)%n", games, seconds, games * 60 / seconds);
+        System.out.printf("average per game: sets=%.2f reshuffles=%.2f claims=%.2f penalties=%.2f duration=%.0fms%n",
+                (double) sets / games, (double) reshuffles / games, (double) claims / games,
+                (double) penalties / games, (double) duration / games);
+    }
+}
@@ -0,0 +1,202 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A call to one of the methods of the UserInterface, as an immutable event (so it can be queued and shared by any
+ * number of subscribers).
+ * An event is encoded in binary as its type (a byte) followed by its arguments: cards and slots as unsigned shorts,
+ * players as unsigned bytes, times and scores as ints, the warning flag as a byte and the winners as a count byte and
+ * a byte per winner.
+ */
+public final class UiEvent {
+
+    /**
+     * The UserInterface method called.
+     */
+    public enum Type {
+        PLACE_CARD, REMOVE_CARD, PLACE_TOKEN, REMOVE_ALL_TOKENS, REMOVE_TOKENS, REMOVE_TOKEN, COUNTDOWN, ELAPSED,
+        FREEZE, SCORE, ANNOUNCE_WINNER, DISPOSE, CLAIM_CHECKED
+    }
+
+    public final Type type;
+
+    /**
+     * The arguments of the call: the player (or the card for PLACE_CARD), the slot, the time or score (or verdict for
+     * CLAIM_CHECKED), the countdown warning flag and the winners (if the method has them).
+     */
+    public final int player;
+    public final int slot;
+    public final long value;
+    public final boolean warn;
+    public final int[] players;
+
+    private UiEvent(Type type, int player, int slot, long value, boolean warn, int[] players) {
+        this.type = type;
+        this.player = player;
+        this.slot = slot;
+        this.value = value;
+        this.warn = warn;
+        this.players = players;
+    }
+
+    static final UiEvent REMOVE_ALL_TOKENS = new UiEvent(Type.REMOVE_ALL_TOKENS, -1, -1, 0, false, null);
+    static final UiEvent DISPOSE = new UiEvent(Type.DISPOSE, -1, -1, 0, false, null);
+
+    static UiEvent placeCard(int card, int slot) {
+        return new UiEvent(Type.PLACE_CARD, card, slot, 0, false, null);
+    }
+
+    static UiEvent removeCard(int slot) {
+        return new UiEvent(Type.REMOVE_CARD, -1, slot, 0, false, null);
+    }
+
+    static UiEvent placeToken(int player, int slot) {
+        return new UiEvent(Type.PLACE_TOKEN, player, slot, 0, false, null);
+    }
+
+    static UiEvent removeTokens(int slot) {
+        return new UiEvent(Type.REMOVE_TOKENS, -1, slot, 0, false, null);
+    }
+
+    static UiEvent removeToken(int player, int slot) {
+        return new UiEvent(Type.REMOVE_TOKEN, player, slot, 0, false, null);
+    }
+
+    static UiEvent countdown(long millies, boolean warn) {
+        return new UiEvent(Type.COUNTDOWN, -1, -1, millies, warn, null);
+    }
+
+    static UiEvent elapsed(long millies) {
+        return new UiEvent(Type.ELAPSED, -1, -1, millies, false, null);
+    }
+
+    static UiEvent freeze(int player, long millies) {
+        return new UiEvent(Type.FREEZE, player, -1, millies, false, null);
+    }
+
+    static UiEvent score(int player, int score) {
+        return new UiEvent(Type.SCORE, player, -1, score, false, null);
+    }
+
+    static UiEvent claimChecked(int player, int verdict) {
+        return new UiEvent(Type.CLAIM_CHECKED, player, -1, verdict, false, null);
+    }
+
+    static UiEvent announceWinner(int[] players) {
+        return new UiEvent(Type.ANNOUNCE_WINNER, -1, -1, 0, false, players.clone());
+    }
+
+    /**
+     * @return - the number of bytes of the encoded event.
+     */
+    public int encodedSize() {
+        switch (type) {
+            case PLACE_CARD: return 5;
+            case REMOVE_CARD: case REMOVE_TOKENS: return 3;
+            case PLACE_TOKEN: case REMOVE_TOKEN: return 4;
+            case COUNTDOWN: return 6;
+            case ELAPSED: return 5;
+            case FREEZE: case SCORE: return 6;
+            case ANNOUNCE_WINNER: return 2 + players.length;
+            case CLAIM_CHECKED: return 3;
+            default: return 1;
+        }
+    }
+
+    /**
+     * Encodes the event.
+     *
+     * @param buffer - the buffer to put the event in (with at least encodedSize() bytes remaining).
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal());
+        switch (type) {
+            case PLACE_CARD: buffer.putShort((short) player).putShort((short) slot); break;
+            case REMOVE_CARD: case REMOVE_TOKENS: buffer.putShort((short) slot); break;
+            case PLACE_TOKEN: case REMOVE_TOKEN: buffer.put((byte) player).putShort((short) slot); break;
+            case COUNTDOWN: buffer.putInt((int) value).put((byte) (warn ? 1 : 0)); break;
+            case ELAPSED: buffer.putInt((int) value); break;
+            case FREEZE: case SCORE: buffer.put((byte) player).putInt((int) value); break;
+            case CLAIM_CHECKED: buffer.put((byte) player).put((byte) value); break;
+            case ANNOUNCE_WINNER:
+                buffer.put((byte) players.length);
+                for (int winner : players)
+                    buffer.put((byte) winner);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Decodes an event.
+     *
+     * @param buffer - the buffer to take the event from.
+     * @return - the event, or null if the buffer does not hold a whole event yet (then nothing is taken from it).
+     * @throws IllegalArgumentException - if the buffer does not start with an event type.
+     */
+    public static UiEvent readFrom(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) return null;
+        int start = buffer.position();
+        int ordinal = buffer.get(start) & 0xFF;
+        if (ordinal >= TYPES.length) throw new IllegalArgumentException("unknown event type " + ordinal);
+        Type type = TYPES[ordinal];
+        int size = type == Type.ANNOUNCE_WINNER ? (buffer.remaining() < 2 ? Integer.MAX_VALUE
+                : 2 + (buffer.get(start + 1) & 0xFF)) : SIZES[ordinal];
+        if (buffer.remaining() < size) return null;
+        buffer.get();
+        switch (type) {
+            case PLACE_CARD: return placeCard(buffer.getShort() & 0xFFFF, buffer.getShort() & 0xFFFF);
+            case REMOVE_CARD: return removeCard(buffer.getShort() & 0xFFFF);
+            case PLACE_TOKEN: return placeToken(buffer.get() & 0xFF, buffer.getShort() & 0xFFFF);
+            case REMOVE_ALL_TOKENS: return REMOVE_ALL_TOKENS;
+            case REMOVE_TOKENS: return removeTokens(buffer.getShort() & 0xFFFF);
+            case REMOVE_TOKEN: return removeToken(buffer.get() & 0xFF, buffer.getShort() & 0xFFFF);
+            case COUNTDOWN: return countdown(buffer.getInt(), buffer.get() != 0);
+            case ELAPSED: return elapsed(buffer.getInt());
+            case FREEZE: return freeze(buffer.get() & 0xFF, buffer.getInt());
+            case SCORE: return score(buffer.get() & 0xFF, buffer.getInt());
+            case CLAIM_CHECKED: return claimChecked(buffer.get() & 0xFF, buffer.get() & 0xFF);
+            case ANNOUNCE_WINNER:
+                int[] winners = new int[buffer.get() & 0xFF];
+                for (int i = 0; i < winners.length; i++)
+                    winners[i] = buffer.get() & 0xFF;
+                return new UiEvent(Type.ANNOUNCE_WINNER, -1, -1, 0, false, winners);
+            default:
+                return DISPOSE;
+        }
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int[] SIZES = new int[TYPES.length];
+
+    static {
+        for (Type type : TYPES)
+            if (type != Type.ANNOUNCE_WINNER)
+                SIZES[type.ordinal()] = new UiEvent(type, 0, 0, 0, false, null).encodedSize();
+    }
+
+    /**
+     * Makes the call the event stands for.
+     *
+     * @param ui - the user interface to call.
+     */
+    public void applyTo(UserInterface ui) {
+        switch (type) {
+            case PLACE_CARD: ui.placeCard(player, slot); break;
+            case REMOVE_CARD: ui.removeCard(slot); break;
+            case PLACE_TOKEN: ui.placeToken(player, slot); break;
+            case REMOVE_ALL_TOKENS: ui.removeTokens(); break;
+            case REMOVE_TOKENS: ui.removeTokens(slot); break;
+            case REMOVE_TOKEN: ui.removeToken(player, slot); break;
+            case COUNTDOWN: ui.setCountdown(value, warn); break;
+            case ELAPSED: ui.setElapsed(value); break;
+            case FREEZE: ui.setFreeze(player, value); break;
+            case SCORE: ui.setScore(player, (int) value); break;
+            case ANNOUNCE_WINNER: ui.announceWinner(players); break;
+            case CLAIM_CHECKED: ui.claimChecked(player, (int) value); break;
+            case DISPOSE: ui.dispose(); break;
+        }
+    }
+}
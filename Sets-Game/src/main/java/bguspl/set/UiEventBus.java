@@ -0,0 +1,297 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A user interface that turns every call into a UiEvent and fans it out to any number of subscribers (e.g. the Swing
+ * view, a recorder or a network spectator). Every subscriber has its own bounded queue drained by its own thread, so
+ * the game threads only pay for putting the event in the queues, and a slow subscriber delays no one but itself
+ * (up to its backpressure policy).
+ * <p>
+ * The bus keeps the state of the game as the events show it (see GameState). A subscriber that lost events to its
+ * backpressure policy is resynced before it gets any more: the events still queued for it are dropped too, and it gets
+ * the events that bring it to the current state instead (so a stateful subscriber, like a network spectator or a
+ * recorder, is never left with a wrong table, only with a gap). The events are published under one lock, so every
+ * subscriber gets them in the same order.
+ */
+public class UiEventBus implements UserInterface {
+
+    /**
+     * What happens to an event published while a subscriber's queue is full.
+     */
+    public enum Backpressure {
+        /**
+         * The publishing thread waits for room (no event is lost, but a stalled subscriber stalls the game threads,
+         * so only for tests and tooling).
+         */
+        BLOCK,
+        /**
+         * The new event is dropped (and the subscriber is resynced).
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest queued event is dropped to make room for the new one (and the subscriber is resynced).
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * How long dispose waits for every subscriber to handle the events queued before it.
+     */
+    private static final long DISPOSE_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * A subscriber: its queue and the thread calling it.
+     */
+    private class Subscriber implements Runnable {
+
+        private final String name;
+        private final Consumer<UiEvent> sink;
+        private final Backpressure backpressure;
+        private final BlockingQueue<UiEvent> queue;
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder resyncs = new LongAdder();
+        private final Thread thread;
+
+        /**
+         * True iff the subscriber lost events since it was last resynced (guarded by the publish lock).
+         */
+        private boolean stale;
+
+        private Subscriber(String name, Consumer<UiEvent> sink, int capacity, Backpressure backpressure) {
+            this.name = name;
+            this.sink = sink;
+            this.backpressure = backpressure;
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(this, "ui-" + name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Called under the publish lock.
+         */
+        private void offer(UiEvent event) {
+            switch (backpressure) {
+                case BLOCK:
+                    try {
+                        queue.put(event);
+                    } catch (InterruptedException e) {
+                        dropped.increment();
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+                case DROP_NEWEST:
+                    if (!queue.offer(event)) {
+                        dropped.increment();
+                        stale = true;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!queue.offer(event))
+                        if (queue.poll() != null) {
+                            dropped.increment();
+                            stale = true;
+                        }
+                    break;
+            }
+        }
+
+        /**
+         * Replaces the events queued with the events that bring the subscriber to the current state, if it lost any.
+         *
+         * @param batch - the events taken from the queue so far, replaced as well.
+         */
+        private void resyncIfStale(List<UiEvent> batch) {
+            synchronized (state) {
+                if (!stale) return;
+                stale = false;
+                // nothing is published meanwhile, so the events queued are all older than the state
+                queue.drainTo(batch);
+                boolean disposed = batch.contains(UiEvent.DISPOSE);
+                dropped.add(batch.size() - (disposed ? 1 : 0));
+                batch.clear();
+                state.forEachEvent(batch::add);
+                if (disposed) batch.add(UiEvent.DISPOSE);
+            }
+            resyncs.increment();
+        }
+
+        @Override
+        public void run() {
+            List<UiEvent> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    if (backpressure != Backpressure.BLOCK) resyncIfStale(batch);
+                    for (UiEvent event : batch) {
+                        try {
+                            sink.accept(event);
+                        } catch (RuntimeException e) {
+                            logger.warning("ui subscriber " + name + " failed on " + event.type + ": " + e);
+                        }
+                        if (event == UiEvent.DISPOSE) return;
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private final Logger logger;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * The state of the game as the events published show it (also the publish lock).
+     */
+    private final GameState state;
+
+    /**
+     * @param logger - the logger of the game.
+     * @param config - the game configuration.
+     */
+    public UiEventBus(Logger logger, Config config) {
+        this.logger = logger;
+        state = new GameState(config);
+    }
+
+    /**
+     * Adds a subscriber, that gets the events published from now on (in the order they were published, but for the
+     * events it lost to its backpressure policy).
+     *
+     * @param name         - the name of the subscriber (for its thread and the logs).
+     * @param sink         - the user interface the events are applied to (on the subscriber's thread).
+     * @param capacity     - the most events queued for the subscriber.
+     * @param backpressure - what happens to an event published while the queue is full.
+     */
+    public void subscribe(String name, UserInterface sink, int capacity, Backpressure backpressure) {
+        subscribe(name, event -> event.applyTo(sink), capacity, backpressure);
+    }
+
+    /**
+     * Adds a subscriber that takes the events themselves (e.g. to record them or send them over the network).
+     *
+     * @param name         - the name of the subscriber (for its thread and the logs).
+     * @param sink         - called with every event (on the subscriber's thread), the last one being DISPOSE. After
+     *                     events were dropped, it gets the events of GameState.forEachEvent (starting with
+     *                     REMOVE_ALL_TOKENS) before the newer ones.
+     * @param capacity     - the most events queued for the subscriber.
+     * @param backpressure - what happens to an event published while the queue is full.
+     */
+    public void subscribe(String name, Consumer<UiEvent> sink, int capacity, Backpressure backpressure) {
+        Subscriber subscriber = new Subscriber(name, sink, capacity, backpressure);
+        subscriber.thread.start();
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * @return - the number of subscribers.
+     */
+    public int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Puts an event in the queues of all the subscribers.
+     *
+     * @param event - the event.
+     */
+    public void publish(UiEvent event) {
+        synchronized (state) {
+            state.apply(event);
+            for (Subscriber subscriber : subscribers)
+                subscriber.offer(event);
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        publish(UiEvent.placeCard(card, slot));
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        publish(UiEvent.removeCard(slot));
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        publish(UiEvent.placeToken(player, slot));
+    }
+
+    @Override
+    public void removeTokens() {
+        publish(UiEvent.REMOVE_ALL_TOKENS);
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        publish(UiEvent.removeTokens(slot));
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        publish(UiEvent.removeToken(player, slot));
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        publish(UiEvent.countdown(millies, warn));
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        publish(UiEvent.elapsed(millies));
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        publish(UiEvent.freeze(player, millies));
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        publish(UiEvent.score(player, score));
+    }
+
+    @Override
+    public void claimChecked(int player, int verdict) {
+        publish(UiEvent.claimChecked(player, verdict));
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        publish(UiEvent.announceWinner(players));
+    }
+
+    /**
+     * Disposes of all the subscribers, after they handle the events queued before (waiting for them up to a second).
+     */
+    @Override
+    public void dispose() {
+        long deadline = System.currentTimeMillis() + DISPOSE_TIMEOUT_MILLIS;
+        for (Subscriber subscriber : subscribers) {
+            try {
+                // whatever the backpressure policy, dispose is never dropped (but a stuck subscriber is interrupted)
+                if (!subscriber.queue.offer(UiEvent.DISPOSE, Math.max(1, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS))
+                    subscriber.thread.interrupt();
+                subscriber.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long dropped = subscriber.dropped.sum();
+            if (dropped > 0) logger.warning("ui subscriber " + subscriber.name + " dropped " + dropped + " events ("
+                    + subscriber.resyncs.sum() + " resyncs)");
+        }
+    }
+}
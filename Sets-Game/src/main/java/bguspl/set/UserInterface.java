@@ -80,6 +80,21 @@ public interface UserInterface {
      */
     void announceWinner(int[] players);
 
+    /**
+     * Report the verdict on a set claimed by a player (nothing is displayed by default).
+     * @param player  - the player id.
+     * @param verdict - CLAIM_POINT, CLAIM_PENALTY or CLAIM_STALE.
+     */
+    default void claimChecked(int player, int verdict) {
+    }
+
+    /**
+     * The verdicts on a claim: a legal set, not a legal set, or no longer valid (ignored).
+     */
+    int CLAIM_POINT = 0;
+    int CLAIM_PENALTY = 1;
+    int CLAIM_STALE = 2;
+
     /**
      * Programmatically closes the window.
      */
@@ -1,62 +1,68 @@
 package bguspl.set;
 
+import bguspl.set.EventLog.Event;
+
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class UserInterfaceDecorator implements UserInterface {
 
     private final Logger logger;
+    private final EventLog events;
     private final Util util;
     private final UserInterface ui;
 
     public UserInterfaceDecorator(Logger logger, Util util, UserInterface ui) {
         this.ui = ui;
         this.logger = logger;
+        this.events = EventLog.of(logger);
         this.util = util;
 
-        if (ui == null) System.out.println("running without a user interface. Check logs.");
+        if (ui == null || ui instanceof UiEventBus && ((UiEventBus) ui).subscribers() == 0)
+            System.out.println("running without a user interface. Check logs.");
     }
 
     @Override
     public void placeCard(int card, int slot) {
-        logger.severe("placing card " + card + " in slot " + slot);
+        events.log(Event.CARD_PLACED, card, slot);
         util.spin();
         if (ui != null) ui.placeCard(card, slot);
     }
 
     @Override
     public void removeCard(int slot) {
-        logger.severe("removing card from slot " + slot);
+        events.log(Event.CARD_REMOVED, slot);
         util.spin();
         if (ui != null) ui.removeCard(slot);
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        logger.severe("player " + (player + 1) + " placing token on slot " + slot);
+        events.log(Event.TOKEN_PLACED, player + 1, slot);
         util.spin();
         if (ui != null) ui.placeToken(player, slot);
     }
 
     @Override
     public void removeTokens() {
-        logger.severe("removing all tokens");
+        events.log(Event.ALL_TOKENS_REMOVED);
         util.spin();
         if (ui != null) ui.removeTokens();
     }
 
     @Override
     public void removeTokens(int slot) {
-        logger.severe("removing tokens from slot " + slot);
+        events.log(Event.SLOT_TOKENS_REMOVED, slot);
         util.spin();
         if (ui != null) ui.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        logger.severe("removing player " + (player + 1) + " token from slot " + slot);
+        events.log(Event.TOKEN_REMOVED, player + 1, slot);
         util.spin();
         if (ui != null) ui.removeToken(player, slot);
     }
@@ -64,41 +70,50 @@ public class UserInterfaceDecorator implements UserInterface {
     @Override
     public void setCountdown(long millies, boolean warn) {
         if (!warn || millies % 1000L == 0L)
-            logger.severe("updating countdown to " + millies);
+            events.log(Event.COUNTDOWN, millies);
         if (ui != null) ui.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
-        logger.severe("updating elapsed time to " + millies);
+        events.log(Event.ELAPSED, millies);
         util.spin();
         if (ui != null) ui.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        logger.severe("setting player " + (player + 1) + " freeze to " + millies);
+        events.log(Event.FREEZE, player + 1, millies);
         util.spin();
         if (ui != null) ui.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        logger.severe("setting player " + (player + 1) + " score to " + score);
+        events.log(Event.SCORE, player + 1, score);
         util.spin();
         if (ui != null) ui.setScore(player, score);
     }
 
+    @Override
+    public void claimChecked(int player, int verdict) {
+        events.log(Event.CLAIM_CHECKED, player + 1, verdict);
+        util.spin();
+        if (ui != null) ui.claimChecked(player, verdict);
+    }
+
     @Override
     public void announceWinner(int[] players) {
-        List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
-        logger.severe("announcing winner(s): " + String.join(", ", winners));
+        if (logger.isLoggable(Level.INFO)) {
+            List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
+            logger.info("announcing winner(s): " + String.join(", ", winners));
+        }
         if (ui != null) ui.announceWinner(players);
     }
 
     @Override
     public void dispose() {
-        logger.severe("disposing of user interface elements");
+        logger.info("disposing of user interface elements");
         if (ui != null) ui.dispose();
     }
 }
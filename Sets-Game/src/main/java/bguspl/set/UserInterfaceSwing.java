@@ -4,9 +4,10 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -23,14 +24,67 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
+    private final Logger logger;
+
+    /**
+     * The latest state of the display as updated by the game threads (guarded by updatesLock), and what changed since
+     * the last frame: the card in every slot (-1 if empty), the players' tokens, the timer and the players' labels.
+     */
+    private final Object updatesLock = new Object();
+    private final int[] cards;
+    private final boolean[][] tokens;
+    private long countdown;
+    private boolean countdownWarn;
+    private long elapsed;
+    private final long[] freezes;
+    private final int[] scores;
+    private final BitSet dirtyCards = new BitSet();
+    private final BitSet dirtyTokens = new BitSet();
+    private final BitSet dirtyFreezes = new BitSet();
+    private final BitSet dirtyScores = new BitSet();
+    private boolean countdownDirty;
+    private boolean elapsedDirty;
+    private boolean frameScheduled;
+
+    /**
+     * Runs a delayed frame (on the Event Dispatch Thread), and the time the last frame ran.
+     */
+    private final Timer frameTimer;
+    private long lastFrame;
 
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
-    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+    /**
+     * @param logger  - the logger of the game.
+     * @param config  - the game configuration.
+     * @param players - the players of the game (filled in by the caller).
+     * @param onClose - called when the window is closed with the X button.
+     */
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, Runnable onClose) {
+        this(logger, config, players, onClose, new KeyTrace(false));
+    }
+
+    /**
+     * @param logger  - the logger of the game.
+     * @param config  - the game configuration.
+     * @param players - the players of the game (filled in by the caller).
+     * @param onClose - called when the window is closed with the X button.
+     * @param trace   - the trace of the key presses of the game.
+     */
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, Runnable onClose, KeyTrace trace) {
 
         this.config = config;
+        this.logger = logger;
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokens = new boolean[config.players][config.tableSize];
+        freezes = new long[config.players];
+        scores = new int[config.players];
+        frameTimer = new Timer(0, e -> applyFrame());
+        frameTimer.setRepeats(false);
+
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
         playersPanel = new PlayersPanel();
@@ -63,8 +117,8 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        addKeyListener(new InputManager(logger, config, players));
-        addWindowListener(new WindowManager());
+        addKeyListener(new InputManager(logger, config, players, trace));
+        addWindowListener(new WindowManager(onClose));
 
         EventQueue.invokeLater(() -> setVisible(true));
     }
@@ -102,94 +156,122 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
+        private final CardImages images;
+        private final int[][] grid;
         private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
-
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
+        private final String[][] tokenText;
+
+        /**
+         * The rendered image of every cell (the card with the players' tokens and the cell border composited over it),
+         * and the cells whose image must be rendered again before it is drawn.
+         */
+        private final BufferedImage[][] cells;
+        private final BitSet staleCells = new BitSet();
+        private final Font tokenFont;
+        private final Color tokenColor;
+        private boolean painted;
 
         private GamePanel() {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+            setOpaque(true); // the cells cover the whole panel
 
-            // init deck and load all pictures from png files
-            assert config.featureSize < 10; // otherwise there will be naming conflicts
+            // the card images are decoded in the background (the empty card is drawn until a card's image is ready)
+            images = new CardImages(config, logger, card -> EventQueue.invokeLater(() -> cardReady(card)));
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+            Font labelFont = UIManager.getFont("Label.font");
+            tokenFont = labelFont != null ? labelFont : new Font("Dialog", Font.BOLD, 12);
+            Color labelColor = UIManager.getColor("Label.foreground");
+            tokenColor = labelColor != null ? labelColor : Color.black;
 
-            grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
+            grid = new int[config.rows][config.columns];
+            tokenText = new String[config.rows][config.columns];
             playerTokens = new boolean[config.players][config.rows][config.columns];
+            cells = new BufferedImage[config.rows][config.columns];
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
-
-                    // init the JLabel selection overlay
-                    tokenText[row][column] = new JLabel("");
-                    tokenText[row][column].setVerticalAlignment(JLabel.TOP);
-                    tokenText[row][column].setHorizontalAlignment(JLabel.CENTER);
-                    tokenText[row][column].setOpaque(false);
-                    tokenText[row][column].setBorder(BorderFactory.createLineBorder(Color.black));
-                    tokenText[row][column].setBounds((column * config.cellWidth), (row * config.cellHeight), config.cellWidth, config.cellHeight);
-                    add(tokenText[row][column]);
+                    grid[row][column] = -1;
+                    tokenText[row][column] = "";
                 }
             }
+            staleCells.set(0, config.rows * config.columns);
         }
 
-        private void placeCard(int slot, int card) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
-        }
-
-        private void removeCard(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+        /**
+         * Marks a cell to be rendered again, and repaints it.
+         */
+        private void invalidateCell(int row, int column) {
+            staleCells.set(row * config.columns + column);
+            repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
         }
 
-        private void placeToken(int player, int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+        /**
+         * Renders the image of a cell: the card, the names of the players with tokens on it and the cell border.
+         * The image is compatible with the display (so it is kept in video memory where possible), and is reused by
+         * every paint until the cell changes.
+         */
+        private BufferedImage renderCell(int row, int column) {
+            BufferedImage cell = cells[row][column];
+            if (cell == null) {
+                GraphicsConfiguration gc = getGraphicsConfiguration();
+                cell = gc != null ? gc.createCompatibleImage(config.cellWidth, config.cellHeight, Transparency.OPAQUE)
+                        : new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_RGB);
+                cells[row][column] = cell;
+            }
+            Graphics2D g = cell.createGraphics();
+            g.setColor(getBackground());
+            g.fillRect(0, 0, config.cellWidth, config.cellHeight);
+            images.draw(g, grid[row][column], 0, 0);
+
+            // the token overlay (as the text of a top centered label with a black line border)
+            String text = tokenText[row][column];
+            if (!text.isEmpty()) {
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setFont(tokenFont);
+                g.setColor(tokenColor);
+                FontMetrics metrics = g.getFontMetrics();
+                g.drawString(text, (config.cellWidth - metrics.stringWidth(text)) / 2, 1 + metrics.getAscent());
+            }
+            g.setColor(Color.black);
+            g.drawRect(0, 0, config.cellWidth - 1, config.cellHeight - 1);
+            g.dispose();
+            return cell;
         }
 
-        private void removeTokens() {
-            for (int i = 0; i < config.tableSize; i++)
-                removeTokens(i);
+        /**
+         * Repaints the cells showing a card whose image just became ready.
+         */
+        private void cardReady(int card) {
+            for (int row = 0; row < config.rows; row++)
+                for (int column = 0; column < config.columns; column++)
+                    if (grid[row][column] == card)
+                        invalidateCell(row, column);
         }
 
-        private void removeTokens(int slot) {
+        /**
+         * Shows a card (or an empty card if card is -1) in a slot, repainting only the slot's cell.
+         */
+        private void setCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
-                playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            grid[row][column] = card;
+            invalidateCell(row, column);
         }
 
-        private void removeToken(int player, int slot) {
+        /**
+         * Shows the players' tokens on a slot.
+         */
+        private void setTokens(int slot, boolean[][] tokens) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            for (int player = 0; player < playerTokens.length; player++)
+                playerTokens[player][row][column] = tokens[player][slot];
+            String text = generatePlayersTokenText(row, column);
+            if (!text.equals(tokenText[row][column])) {
+                tokenText[row][column] = text;
+                invalidateCell(row, column);
+            }
         }
 
         private String generatePlayersTokenText(int row, int column) {
@@ -205,10 +287,27 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
+            // draw the cached images of the cells to repaint (rendering again only the cells that changed)
+            Rectangle clip = g.getClipBounds();
             for (int row = 0; row < config.rows; row++)
                 for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+                    if (clip == null || clip.intersects(column * config.cellWidth, row * config.cellHeight,
+                            config.cellWidth, config.cellHeight)) {
+                        int cell = row * config.columns + column;
+                        BufferedImage image = cells[row][column];
+                        if (image == null || staleCells.get(cell)) {
+                            image = renderCell(row, column);
+                            staleCells.clear(cell);
+                        }
+                        g.drawImage(image, (column * config.cellWidth), (row * config.cellHeight), null);
+                    }
+
+            if (!painted) {
+                painted = true;
+                logger.info(format("first frame painted %d ms after the JVM started (%s)",
+                        ManagementFactory.getRuntimeMXBean().getUptime(),
+                        images.allReady() ? "all card images ready" : "card images still loading"));
+            }
         }
     }
 
@@ -274,65 +373,156 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         }
     }
 
+    /**
+     * Runs a frame of updates on the Event Dispatch Thread: no sooner than a frame interval after the previous one, so
+     * the updates in between are merged (called with updatesLock held, when the first update since a frame is made).
+     */
+    private void scheduleFrame() {
+        if (frameScheduled) return;
+        frameScheduled = true;
+        EventQueue.invokeLater(() -> {
+            long delay = lastFrame + 1000 / config.framesPerSecond - System.currentTimeMillis();
+            if (delay <= 0) applyFrame();
+            else {
+                frameTimer.setInitialDelay((int) delay);
+                frameTimer.restart();
+            }
+        });
+    }
+
+    /**
+     * Applies the updates made since the previous frame to the components (on the Event Dispatch Thread).
+     * Only the latest state of every card, token cell and label is applied, and only the dirty cells are repainted.
+     */
+    private void applyFrame() {
+        lastFrame = System.currentTimeMillis();
+        synchronized (updatesLock) {
+            frameScheduled = false;
+            for (int slot = dirtyCards.nextSetBit(0); slot >= 0; slot = dirtyCards.nextSetBit(slot + 1))
+                gamePanel.setCard(slot, cards[slot]);
+            for (int slot = dirtyTokens.nextSetBit(0); slot >= 0; slot = dirtyTokens.nextSetBit(slot + 1))
+                gamePanel.setTokens(slot, tokens);
+            if (countdownDirty) timerPanel.setCountdown(countdown, countdownWarn);
+            if (elapsedDirty) timerPanel.setElapsed(elapsed);
+            for (int player = dirtyFreezes.nextSetBit(0); player >= 0; player = dirtyFreezes.nextSetBit(player + 1))
+                playersPanel.setFreeze(player, freezes[player]);
+            for (int player = dirtyScores.nextSetBit(0); player >= 0; player = dirtyScores.nextSetBit(player + 1))
+                playersPanel.setScore(player, scores[player]);
+            dirtyCards.clear();
+            dirtyTokens.clear();
+            dirtyFreezes.clear();
+            dirtyScores.clear();
+            countdownDirty = elapsedDirty = false;
+        }
+    }
+
     @Override
     public void placeCard(int card, int slot) {
-        gamePanel.placeCard(slot, card);
+        synchronized (updatesLock) {
+            cards[slot] = card;
+            dirtyCards.set(slot);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void removeCard(int slot) {
-        gamePanel.removeCard(slot);
+        synchronized (updatesLock) {
+            cards[slot] = -1;
+            dirtyCards.set(slot);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        gamePanel.placeToken(player, slot);
+        synchronized (updatesLock) {
+            tokens[player][slot] = true;
+            dirtyTokens.set(slot);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void removeTokens() {
-        gamePanel.removeTokens();
+        synchronized (updatesLock) {
+            for (boolean[] playerTokens : tokens)
+                Arrays.fill(playerTokens, false);
+            dirtyTokens.set(0, config.tableSize);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void removeTokens(int slot) {
-        gamePanel.removeTokens(slot);
+        synchronized (updatesLock) {
+            for (boolean[] playerTokens : tokens)
+                playerTokens[slot] = false;
+            dirtyTokens.set(slot);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        gamePanel.removeToken(player, slot);
+        synchronized (updatesLock) {
+            tokens[player][slot] = false;
+            dirtyTokens.set(slot);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
-        timerPanel.setCountdown(millies, warn);
+        synchronized (updatesLock) {
+            countdown = millies;
+            countdownWarn = warn;
+            countdownDirty = true;
+            scheduleFrame();
+        }
     }
 
     @Override
     public void setElapsed(long millies) {
-        timerPanel.setElapsed(millies);
+        synchronized (updatesLock) {
+            elapsed = millies;
+            elapsedDirty = true;
+            scheduleFrame();
+        }
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        playersPanel.setFreeze(player, millies);
+        synchronized (updatesLock) {
+            freezes[player] = millies;
+            dirtyFreezes.set(player);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void setScore(int player, int score) {
-        playersPanel.setScore(player, score);
+        synchronized (updatesLock) {
+            scores[player] = score;
+            dirtyScores.set(player);
+            scheduleFrame();
+        }
     }
 
     @Override
     public void announceWinner(int[] players) {
-        playersPanel.setVisible(false);
-        winnerPanel.announceWinner(players);
-        winnerPanel.setVisible(true);
+        // after the updates queued before it
+        EventQueue.invokeLater(() -> {
+            applyFrame();
+            playersPanel.setVisible(false);
+            winnerPanel.announceWinner(players);
+            winnerPanel.setVisible(true);
+        });
     }
 
     @Override
     public void dispose() {
-        super.dispose();
+        if (EventQueue.isDispatchThread()) super.dispose();
+        else EventQueue.invokeLater(super::dispose);
     }
 }
@@ -10,6 +10,8 @@ public interface Util {
     /**
      * Converts a card id to an array of features (of config.featureCount values between 0 and config.featuresSize - 1)
      *
+     * Note: the array returned is shared (cached per card) and must not be modified.
+     *
      * @param card - the card id.
      * @return - the array of features.
      */
@@ -40,8 +42,77 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Finds up to count sets in the first len cards of the given array and writes them to a caller supplied buffer.
+     *
+     * @param cards - an array of card ids.
+     * @param len   - the number of cards to consider (from the beginning of the array).
+     * @param count - the maximum number of sets to find.
+     * @param sets  - the buffer the sets are written to, config.featureSize sorted card ids per set, back to back.
+     * @return - the number of sets written (limited by count and by the capacity of the buffer).
+     */
+    int findSets(int[] cards, int len, int count, int[] sets);
+
+    /**
+     * Finds up to count sets in the first len cards of the given array and passes each of them to the visitor.
+     *
+     * @param cards   - an array of card ids.
+     * @param len     - the number of cards to consider (from the beginning of the array).
+     * @param count   - the maximum number of sets to find.
+     * @param visitor - the visitor to pass the sets to.
+     * @return - the number of sets visited.
+     */
+    int findSets(int[] cards, int len, int count, SetVisitor visitor);
+
+    /**
+     * Finds up to count sets made of the given card and config.featureSize - 1 of the first len cards of the array,
+     * and passes each of them to the visitor (if not null).
+     *
+     * @param card    - the card all the sets should contain.
+     * @param cards   - an array of card ids (the given card itself is ignored if it is included).
+     * @param len     - the number of cards to consider (from the beginning of the array).
+     * @param count   - the maximum number of sets to find.
+     * @param visitor - the visitor to pass the sets to (may be null for counting only).
+     * @return - the number of sets found.
+     */
+    int findSetsWith(int card, int[] cards, int len, int count, SetVisitor visitor);
+
+    /**
+     * Counts the sets in the first len cards of the given array.
+     *
+     * @param cards - an array of card ids.
+     * @param len   - the number of cards to consider (from the beginning of the array).
+     * @return - the number of legal sets.
+     */
+    int countSets(int[] cards, int len);
+
+    /**
+     * Checks if there is at least one set in the first len cards of the given array (stops at the first one found).
+     *
+     * @param cards - an array of card ids.
+     * @param len   - the number of cards to consider (from the beginning of the array).
+     * @return - true iff the cards contain a legal set.
+     */
+    boolean anySet(int[] cards, int len);
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
     void spin();
+
+    /**
+     * A callback for the allocation free set search.
+     */
+    interface SetVisitor {
+
+        /**
+         * Called for every set found.
+         * Note: the array is a buffer owned by the search and is reused for the next set, so it must be copied if it
+         * should be kept. The visitor must not start another set search on the same thread.
+         *
+         * @param set - the sorted card ids of the set.
+         * @return - true to continue the search, false to stop it.
+         */
+        boolean visit(int[] set);
+    }
 }
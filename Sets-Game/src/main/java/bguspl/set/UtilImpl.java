@@ -1,20 +1,103 @@
 package bguspl.set;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The implementation of the UserInterface interface.
  */
 public class UtilImpl implements Util {
 
+    /**
+     * The largest deck for which the pair completion table is precomputed (3^6 cards, ~2MB of ints).
+     */
+    private static final int PAIR_TABLE_MAX_DECK_SIZE = 729;
+
     private final Config config;
 
+    /**
+     * Pair completion table for 3-card sets: thirdCard[a * deckSize + b] is the only card that forms a legal set
+     * together with cards a and b (null if featureSize != 3 or the deck is too large to tabulate).
+     */
+    private final int[] thirdCard;
+
+    /**
+     * The features of every card, decoded once (see cardToFeatures).
+     */
+    private final int[][] features;
+
+    /**
+     * The packed features of every card: feature i takes featureSize + 1 bits at offset i * (featureSize + 1), with
+     * only the bit of its value set (the extra high bit of each field stays clear for SWAR arithmetic).
+     * Null if the fields do not fit in a long.
+     */
+    private final long[] packed;
+
+    /**
+     * Masks of the packed fields: all the value bits, the lowest bit and the spare high bit of each field.
+     */
+    private final long valueBits;
+    private final long lowBits;
+    private final long highBits;
+
+    /**
+     * Per thread state of the sequential set search, so a search does not allocate.
+     */
+    private final ThreadLocal<Search> scratch;
+
+    /**
+     * The pools of the parallel set search, by number of threads: shared by all the instances (the games of a
+     * GameHost, or the games run one after another in a process), so no instance owns threads to shut down. The
+     * threads of a ForkJoinPool are daemon threads, and exit when idle.
+     */
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * The pool of the parallel set search (null if config.setSearchThreads <= 1).
+     */
+    private final ForkJoinPool pool;
+
     public UtilImpl(Config config) {
         this.config = config;
+
+        if (config.featureSize == 3 && config.deckSize <= PAIR_TABLE_MAX_DECK_SIZE) {
+            thirdCard = new int[config.deckSize * config.deckSize];
+            for (int a = 0; a < config.deckSize; ++a)
+                for (int b = 0; b < config.deckSize; ++b)
+                    thirdCard[a * config.deckSize + b] = completeSet(a, b);
+        } else thirdCard = null;
+
+        features = new int[config.deckSize][config.featureCount];
+        for (int card = 0; card < config.deckSize; ++card)
+            cardToFeatures(card, features[card]);
+
+        int width = config.featureSize + 1;
+        long values = 0, low = 0, high = 0;
+        for (int i = 0; i < config.featureCount; ++i) {
+            values |= ((1L << config.featureSize) - 1) << i * width;
+            low |= 1L << i * width;
+            high |= 1L << i * width + config.featureSize;
+        }
+        valueBits = values;
+        lowBits = low;
+        highBits = high;
+        if (config.featureCount * width <= Long.SIZE) {
+            packed = new long[config.deckSize];
+            for (int card = 0; card < config.deckSize; ++card)
+                for (int i = 0; i < config.featureCount; ++i)
+                    packed[card] |= 1L << i * width + features[card][i];
+        } else packed = null;
+
+        scratch = ThreadLocal.withInitial(() -> new Search(new long[(config.deckSize + 63) >>> 6]));
+        pool = config.setSearchThreads > 1 ? POOLS.computeIfAbsent(config.setSearchThreads, ForkJoinPool::new) : null;
     }
 
     private void cardToFeatures(int card, int[] features) {
@@ -24,23 +107,57 @@ public class UtilImpl implements Util {
         }
     }
 
+    /**
+     * Computes the only card that completes a 3-card set with the two given cards: for every feature the third
+     * value is the same one if both values are equal, or the remaining one otherwise, i.e. -(a + b) mod 3.
+     */
+    private int completeSet(int a, int b) {
+        int card = 0;
+        for (int i = 0, weight = 1; i < config.featureCount; ++i, weight *= 3, a /= 3, b /= 3)
+            card += (6 - a % 3 - b % 3) % 3 * weight;
+        return card;
+    }
+
+    private int thirdCard(int a, int b) {
+        return thirdCard != null ? thirdCard[a * config.deckSize + b] : completeSet(a, b);
+    }
+
     @Override
     public int[] cardToFeatures(int card) {
-        int[] features = new int[config.featureCount];
-        cardToFeatures(card, features);
-        return features;
+        return features[card];
     }
 
     @Override
     public int[][] cardsToFeatures(int[] cards) {
-        int[][] features = new int[cards.length][config.featureCount];
-        IntStream.range(0, cards.length).forEach(i -> cardToFeatures(cards[i], features[i]));
+        int[][] features = new int[cards.length][];
+        for (int i = 0; i < cards.length; ++i)
+            features[i] = this.features[cards[i]];
         return features;
     }
 
+    /**
+     * Checks all the features at once on the packed representation: OR-ing the cards gives, per field, the mask of
+     * the values the cards have. A feature is legal iff its mask has a single bit (all same) or all the bits (all
+     * different, as there are featureSize cards). A field is non-zero iff adding valueBits carries into its spare bit.
+     */
     @Override
     public boolean testSet(int[] cards) {
-        int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
+        if (packed == null || cards.length != config.featureSize) return testSetByFeatures(cards);
+
+        long union = 0;
+        for (int card : cards)
+            union |= packed[card];
+        long severalValues = union & (union - lowBits);
+        long missingValues = union ^ valueBits;
+        return (nonZeroFields(severalValues) & nonZeroFields(missingValues)) == 0;
+    }
+
+    private long nonZeroFields(long fields) {
+        return (fields + valueBits) & highBits;
+    }
+
+    private boolean testSetByFeatures(int[] cards) {
+        int[][] features = cardsToFeatures(cards);
         for (int i = 0; i < config.featureCount; ++i) {
             boolean sameSame = true, butDifferent = true;
 
@@ -67,27 +184,327 @@ public class UtilImpl implements Util {
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
-        int r = config.featureSize;
-        int[] combination = new int[r];
-
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
-
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        findSets(cards, cards.length, count, set -> sets.add(set.clone()));
+        return sets;
+    }
+
+    @Override
+    public int findSets(int[] cards, int len, int count, int[] sets) {
+        return search(-1, cards, len, Math.min(count, sets.length / config.featureSize), sets, null);
+    }
+
+    @Override
+    public int findSets(int[] cards, int len, int count, SetVisitor visitor) {
+        return search(-1, cards, len, count, null, visitor);
+    }
+
+    @Override
+    public int findSetsWith(int card, int[] cards, int len, int count, SetVisitor visitor) {
+        return search(card, cards, len, count, null, visitor);
+    }
+
+    @Override
+    public int countSets(int[] cards, int len) {
+        return search(-1, cards, len, Integer.MAX_VALUE, null, null);
+    }
+
+    @Override
+    public boolean anySet(int[] cards, int len) {
+        return search(-1, cards, len, 1, null, null) > 0;
+    }
+
+    /**
+     * The common set search: every set found is written to the sets buffer and/or passed to the visitor (if not null).
+     * Large inputs are searched in parallel (if enabled), small ones on the calling thread without allocating.
+     *
+     * @param with - if not negative, only the sets made of this card and featureSize - 1 of the cards are searched.
+     * @return - the number of sets found.
+     */
+    private int search(int with, int[] cards, int len, int count, int[] sets, SetVisitor visitor) {
+        if (count <= 0) return 0; // nothing asked for (or no room for a set in the buffer)
+        if (pool != null && len >= config.parallelSearchThreshold && (with < 0 || config.featureSize > 3))
+            return searchInParallel(with, cards, len, count, sets, visitor);
+
+        Search search = scratch.get();
+        search.init(with, cards, len, count);
+        search.sets = sets;
+        search.visitor = visitor;
+        for (int i = 0; i < len; ++i)
+            search.present[cards[i] >>> 6] |= 1L << cards[i];
+        try {
+            search.run(0, len);
+            return search.found;
+        } finally {
+            for (int i = 0; i < len; ++i)
+                search.present[cards[i] >>> 6] = 0;
+            search.sets = null;
+            search.visitor = null;
+        }
+    }
+
+    /**
+     * Splits the search by the index of the first card between the tasks of the fork/join pool. The tasks share a
+     * counter of the sets found, so they all stop once count sets are found. The sets are then reported on the
+     * calling thread, ordered by the index of their first card.
+     */
+    private int searchInParallel(int with, int[] cards, int len, int count, int[] sets, SetVisitor visitor) {
+        long[] present = new long[(config.deckSize + 63) >>> 6];
+        for (int i = 0; i < len; ++i)
+            present[cards[i] >>> 6] |= 1L << cards[i];
+        AtomicInteger total = new AtomicInteger();
+        boolean collect = sets != null || visitor != null;
+
+        // the first cards have more cards after them, so the chunks are small enough to balance the load
+        int chunkSize = Math.max(1, len / (config.setSearchThreads * 8));
+        List<SearchTask> tasks = new ArrayList<>();
+        for (int from = 0; from < len; from += chunkSize) {
+            Search search = new Search(present);
+            search.init(with, cards, len, count);
+            search.total = total;
+            search.collected = collect ? new ArrayList<>() : null;
+            tasks.add(new SearchTask(search, from, Math.min(len, from + chunkSize)));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+
+        if (!collect) return Math.min(total.get(), count);
+        int found = 0;
+        for (SearchTask task : tasks)
+            for (int[] set : task.search.collected) {
+                if (sets != null) System.arraycopy(set, 0, sets, found * set.length, set.length);
+                found++;
+                if ((visitor != null && !visitor.visit(set)) || found >= count) return found;
+            }
+        return found;
+    }
+
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Search search;
+        final int from;
+        final int to;
+
+        SearchTask(Search search, int from, int to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            search.run(from, to);
+        }
+    }
+
+    /**
+     * The state of a single set search over the first len cards of an array: the sequential search reuses one per
+     * thread, and the parallel search uses one per task (all sharing the same presence bitmap).
+     */
+    private class Search {
+
+        /**
+         * Presence bitmap of the cards searched.
+         */
+        final long[] present;
+
+        /**
+         * The (sorted) set being reported.
+         */
+        final int[] set = new int[config.featureSize];
+
+        /**
+         * Backtracking state: the cards chosen so far, and per feature, the mask of the values they have.
+         */
+        final int[] chosen = new int[config.featureSize];
+        final int[][] values = new int[config.featureSize][config.featureCount];
+
+        int with;
+        int[] cards;
+        int len;
+        int count;
+        int found;
+
+        /**
+         * Outputs of the sequential search (any of them may be null).
+         */
+        int[] sets;
+        SetVisitor visitor;
+
+        /**
+         * Outputs of a parallel search task: the counter shared by all the tasks and the sets found by this one.
+         */
+        AtomicInteger total;
+        List<int[]> collected;
+
+        Search(long[] present) {
+            this.present = present;
+        }
+
+        void init(int with, int[] cards, int len, int count) {
+            this.with = with;
+            this.cards = cards;
+            this.len = len;
+            this.count = count;
+            found = 0;
+        }
+
+        /**
+         * Searches the sets whose first card (by index in the cards array) is in the range [from, to).
+         */
+        void run(int from, int to) {
+            if (config.featureSize == 3) runByCompletion(from, to);
+            else runByBacktracking(from, to);
+        }
+
+        /**
+         * Finds 3-card sets in O(n^2): every pair of cards determines the third card of its set, so it is enough to
+         * look the third card up in the presence bitmap. Each set is reported once, from the pair of its two lowest
+         * cards (or in O(n) from the given card and the lower of the two other cards).
+         */
+        private void runByCompletion(int from, int to) {
+            if (with >= 0) {
+                for (int i = from; i < to; ++i) {
+                    int b = cards[i];
+                    int c = thirdCard(with, b);
+                    if (c > b && c != with && (present[c >>> 6] & 1L << c) != 0) {
+                        set[0] = with;
+                        set[1] = b;
+                        set[2] = c;
+                        Arrays.sort(set);
+                        if (!report()) return;
+                    }
+                }
+                return;
             }
 
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            for (int i = from; i < to; ++i) {
+                if (cancelled()) return;
+                int a = cards[i];
+                for (int j = i + 1; j < len; ++j) {
+                    int b = cards[j];
+                    int c = thirdCard(a, b);
+                    if (c > a && c > b && (present[c >>> 6] & 1L << c) != 0) {
+                        set[0] = Math.min(a, b);
+                        set[1] = Math.max(a, b);
+                        set[2] = c;
+                        if (!report()) return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds sets of any size by backtracking: cards are added one at a time, keeping per feature the mask of the
+         * values seen so far, and a branch is pruned as soon as some feature is neither all same nor all different.
+         * The last card of a set is then determined by the others, so it is looked up in the presence bitmap. Each set
+         * is reported once, from its other cards chosen in index order with the highest card id completing them.
+         */
+        private void runByBacktracking(int from, int to) {
+            int depth = 0;
+            if (with >= 0) {
+                chosen[0] = with;
+                addValues(0, with);
+                depth = 1;
+            }
+
+            for (int i = from; i < to; ++i) {
+                if (cancelled()) return;
+                int card = cards[i];
+                if (card == with || !addValues(depth, card)) continue;
+                chosen[depth] = card;
+                if (!backtrack(depth + 1, i + 1, card)) return;
+            }
+        }
+
+        /**
+         * @param depth - the number of cards chosen so far.
+         * @param start - the index in the cards array to choose the next card from.
+         * @param max   - the highest card id chosen so far (not counting the given card in a findSetsWith search).
+         * @return - false iff the search should stop.
+         */
+        private boolean backtrack(int depth, int start, int max) {
+            if (depth == config.featureSize) { // only for featureSize 2, where one card does not determine the other
+                System.arraycopy(chosen, 0, set, 0, depth);
+                Arrays.sort(set);
+                return report();
+            }
+            if (depth == config.featureSize - 1 && depth > 1) {
+                int card = completeSet(depth - 1);
+                if (card <= max || card == with || (present[card >>> 6] & 1L << card) == 0) return true;
+                System.arraycopy(chosen, 0, set, 0, depth);
+                set[depth] = card;
+                Arrays.sort(set);
+                return report();
+            }
+
+            for (int j = start; j < len; ++j) {
+                int card = cards[j];
+                if (card == with || !addValues(depth, card)) continue;
+                chosen[depth] = card;
+                if (!backtrack(depth + 1, j + 1, Math.max(max, card))) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Adds the values of a card to the feature masks of the previous level.
+         *
+         * @return - false iff some feature is neither all same nor all different (so no set is possible).
+         */
+        private boolean addValues(int depth, int card) {
+            int[] masks = values[depth];
+            int[] cardFeatures = features[card];
+            for (int i = 0; i < config.featureCount; ++i) {
+                masks[i] = (depth == 0 ? 0 : values[depth - 1][i]) | 1 << cardFeatures[i];
+                int distinct = Integer.bitCount(masks[i]);
+                if (distinct != 1 && distinct != depth + 1) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Computes the only card that completes a set with the featureSize - 1 cards chosen: for every feature it has
+         * the same value if all the cards have it, or the only value none of them has otherwise.
+         */
+        private int completeSet(int level) {
+            int[] masks = values[level];
+            int all = (1 << config.featureSize) - 1;
+            int card = 0;
+            for (int i = 0; i < config.featureCount; ++i) {
+                int mask = Integer.bitCount(masks[i]) == 1 ? masks[i] : all & ~masks[i];
+                card = card * config.featureSize + Integer.numberOfTrailingZeros(mask);
+            }
+            return card;
+        }
+
+        private boolean cancelled() {
+            return total != null && total.get() >= count;
+        }
+
+        /**
+         * Reports the set found.
+         *
+         * @return - false iff the search should stop.
+         */
+        private boolean report() {
+            if (total != null) {
+                int sequence = total.incrementAndGet();
+                if (sequence > count) return false;
+                if (collected != null) collected.add(set.clone());
+                found++;
+                return sequence < count;
+            }
+
+            if (sets != null) System.arraycopy(set, 0, sets, found * set.length, set.length);
+            found++;
+            return (visitor == null || visitor.visit(set)) && found < count;
         }
-        return sets;
     }
 
     public void spin() {
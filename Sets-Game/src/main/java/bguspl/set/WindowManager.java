@@ -8,6 +8,15 @@ import java.awt.event.WindowListener;
  */
 public class WindowManager implements WindowListener {
 
+    private final Runnable onClose;
+
+    /**
+     * @param onClose - called when the window is closed with the X button.
+     */
+    public WindowManager(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
     @Override
     public void windowOpened(WindowEvent e) {
         // Auto-generated method stub
@@ -15,9 +24,7 @@ public class WindowManager implements WindowListener {
 
     @Override
     public void windowClosing(WindowEvent e) {
-        try {
-            Main.xButtonPressed();
-        } catch (InterruptedException ignored) {}
+        onClose.run();
     }
 
     @Override
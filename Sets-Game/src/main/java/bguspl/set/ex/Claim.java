@@ -0,0 +1,40 @@
+package bguspl.set.ex;
+
+/**
+ * A player's claim of a set, as queued for the dealer.
+ */
+public class Claim {
+
+    /**
+     * The id of the player claiming the set.
+     */
+    public final int player;
+
+    /**
+     * The time (System.nanoTime) the player placed the last token of the set.
+     */
+    public final long nanos;
+
+    /**
+     * The table epoch the claim was made against (see Table.epoch).
+     */
+    public final int epoch;
+
+    /**
+     * The trace of the key press that completed the set (see KeyTrace).
+     */
+    public final long trace;
+
+    /**
+     * @param player - the id of the player claiming the set.
+     * @param nanos  - the time (System.nanoTime) the player placed the last token of the set.
+     * @param epoch  - the table epoch the claim was made against.
+     * @param trace  - the trace of the key press that completed the set.
+     */
+    public Claim(int player, long nanos, int epoch, long trace) {
+        this.player = player;
+        this.nanos = nanos;
+        this.epoch = epoch;
+        this.trace = trace;
+    }
+}
@@ -1,13 +1,20 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.KeyTrace;
 import bguspl.set.ThreadLogger;
+import bguspl.set.UserInterface;
 
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.LinkedBlockingDeque; // for claimSet
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.logging.Level;
 
 /**
  * This class manages the dealer's threads and data
@@ -28,9 +35,14 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
+
+    /**
+     * The legal sets among the cards still in play (the deck and the table), updated when a set is collected.
+     */
+    private final SetIndex cardsInPlay;
 
     /**
      * True iff game should be terminated.
@@ -42,34 +54,159 @@ public class Dealer implements Runnable {
      */
     private long reshuffleTime = Long.MAX_VALUE;
 
+    /**
+     * The display refresh interval while the countdown warning is shown (it displays hundredths of a second).
+     */
+    private static final long WARNING_TICK_MILLIS = 10;
 
-    public BlockingQueue<Integer> getClaimSets() {
-        return claimSets;
+    /**
+     * The reasons for the dealer thread to wake up.
+     */
+    private enum WakeReason {
+        CLAIM,      // a player claimed a set
+        TICK,       // the countdown display should be updated
+        RESHUFFLE   // the turn timed out
     }
 
     // queue for all players that claim for set-in order
-    private BlockingQueue<Integer> claimSets;
+    private BlockingQueue<Claim> claimSets;
+
+    /**
+     * The claims drained from claimSets to be checked together (in the order of their timestamps), and the cards of
+     * the sets accepted among them.
+     */
+    private final List<Claim> claimBatch = new ArrayList<>();
+    private final boolean[] collectedCards;
+
+    /**
+     * Per claim of the batch: its verdict, and per player: the cards of its claim and their number. A player has at
+     * most one claim pending, so a batch holds at most players.length claims, and deciding it allocates nothing.
+     */
+    private final Verdict[] verdicts;
+    private final int[][] claimCards;
+    private final int[] claimCardCounts;
+
+    /**
+     * The table epoch when the cards were last returned to the deck: claims made against an earlier epoch are stale.
+     */
+    private int clearedEpoch;
+
+    /**
+     * Per player: the time its claims waited from the last token placement until the dealer took them, and the time
+     * the dealer took to decide them.
+     */
+    private final LatencyHistogram[] claimWait;
+    private final LatencyHistogram[] claimVerification;
+
+    /**
+     * The order claims are decided in: by the time their last token was placed.
+     */
+    private static final Comparator<Claim> CLAIM_ORDER = Comparator.comparingLong(claim -> claim.nanos);
+
+    /**
+     * The verdict on a set claim, and the UserInterface CLAIM_ verdict it is reported as.
+     */
+    private enum Verdict {
+        POINT(UserInterface.CLAIM_POINT),       // a legal set - the cards are collected
+        PENALTY(UserInterface.CLAIM_PENALTY),   // not a legal set
+        STALE(UserInterface.CLAIM_STALE);       // the claim is no longer valid (its cards were collected or its tokens
+                                                // removed) - ignored
+
+        private final int uiCode;
+
+        Verdict(int uiCode) {
+            this.uiCode = uiCode;
+        }
+    }
+
+    /**
+     * The statistics of the game.
+     */
+    private final GameStats stats = new GameStats();
 
     //list of players thread
     private ThreadLogger[] playersThread;
 
-    public static Object dealerlock = new Object();
+    /**
+     * The executor shared by all the players (null if each player runs on its own thread).
+     */
+    private ExecutorService playersExecutor;
+
+    /**
+     * The executor the players run on when it is shared with other games (not owned by the dealer).
+     */
+    private final Executor sharedExecutor;
+
+    /**
+     * The timer shared by all the players for their freezes and key presses: the game's virtual clock in a simulated
+     * game, the timer shared with other games if given, otherwise a wheel timer running on a thread of its own.
+     */
+    private final Scheduler timer;
+    private final HashedWheelTimer wheelTimer;
+    private ThreadLogger timerThread;
+
+    /**
+     * The precision of the freeze timer, and the number of buckets of its wheel (a turn of the wheel covers 5 seconds).
+     */
+    public static final long TIMER_TICK_MILLIS = 10;
+    public static final int TIMER_WHEEL_SIZE = 512;
+
 
 
 
 
 
     public Dealer(Env env, Table table, Player[] players) {
+        this(env, table, players, null);
+    }
+
+    /**
+     * @param env             - the game environment objects.
+     * @param table           - the table of the game.
+     * @param players         - the players of the game.
+     * @param sharedExecutor  - an executor shared with other games to run the players on (null to run them as
+     *                          configured by Config.playersOnExecutor).
+     */
+    public Dealer(Env env, Table table, Player[] players, Executor sharedExecutor) {
+        this(env, table, players, sharedExecutor, null);
+    }
+
+    /**
+     * @param env             - the game environment objects.
+     * @param table           - the table of the game.
+     * @param players         - the players of the game.
+     * @param sharedExecutor  - an executor shared with other games to run the players on (null to run them as
+     *                          configured by Config.playersOnExecutor).
+     * @param sharedTimer     - a timer shared with other games for the players (null for a timer of the game's own;
+     *                          ignored in a simulated game, which runs on its virtual clock).
+     */
+    public Dealer(Env env, Table table, Player[] players, Executor sharedExecutor, Scheduler sharedTimer) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        Collections.shuffle(deck);
+        this.sharedExecutor = sharedExecutor;
+        deck = new Deck(env.config.deckSize);
+        cardsInPlay = new SetIndex(env, false);
+        deck.forEach(cardsInPlay::add);
 
         // create a queue for all players that claim set-in order
         claimSets = new LinkedBlockingDeque<>(players.length);
+        collectedCards = new boolean[env.config.deckSize];
+        verdicts = new Verdict[players.length];
+        claimCards = new int[players.length][env.config.featureSize];
+        claimCardCounts = new int[players.length];
+        claimWait = new LatencyHistogram[players.length];
+        claimVerification = new LatencyHistogram[players.length];
+        for (int i = 0; i < players.length; i++) {
+            claimWait[i] = new LatencyHistogram();
+            claimVerification[i] = new LatencyHistogram();
+        }
         // create a thread for each player
         playersThread = new ThreadLogger[players.length];
+        wheelTimer = env.clock instanceof VirtualClock || sharedTimer != null ? null
+                : new HashedWheelTimer(env.logger, TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE);
+        timer = env.clock instanceof VirtualClock ? (VirtualClock) env.clock
+                : sharedTimer != null ? sharedTimer : wheelTimer;
         reshuffleTime = env.config.turnTimeoutMillis;
         terminate = false;
 
@@ -83,19 +220,40 @@ public class Dealer implements Runnable {
 
     @Override
     public void run() {
-        System.out.println("Dealer thread started.");
-
-        for (int num = 0; num < players.length; num++) {
-            ThreadLogger playerThread = new ThreadLogger(players[num], env.config.playerNames[num], env.logger);
-            playersThread[num] = playerThread;
-            playerThread.startWithLog();
-            System.out.println("Dealer started player " + num + " thread.");
+        env.logger.info("Dealer thread started.");
+        stats.startTime = env.clock.millis();
+
+        if (env.clock instanceof VirtualClock) {
+            // a simulated game: the players run on the virtual clock, while the dealer waits for it
+            for (Player player : players)
+                player.start((VirtualClock) env.clock);
+        } else {
+            if (wheelTimer != null) {
+                timerThread = new ThreadLogger(wheelTimer, "timer", env.logger);
+                timerThread.startWithLog();
+            }
+            if (sharedExecutor != null) {
+                for (Player player : players)
+                    player.start(sharedExecutor);
+            } else if (env.config.playersOnExecutor) {
+                AtomicInteger threads = new AtomicInteger();
+                playersExecutor = Executors.newFixedThreadPool(env.config.playerThreads,
+                        task -> new Thread(task, "players-" + threads.incrementAndGet()));
+                for (Player player : players)
+                    player.start(playersExecutor);
+            } else for (int num = 0; num < players.length; num++) {
+                ThreadLogger playerThread = new ThreadLogger(players[num], env.config.playerNames[num], env.logger);
+                playersThread[num] = playerThread;
+                playerThread.startWithLog();
+                env.logger.info("Dealer started player " + num + " thread.");
 
+            }
         }
         while (!this.terminate) {
             placeCardsOnTable();
             timerLoop();
             updateTimerDisplay(true);
+            if (!terminate) stats.reshuffles++;
             try {
                 removeAllCardsFromTable();
                 if (shouldFinish())
@@ -107,7 +265,10 @@ public class Dealer implements Runnable {
 
         }
         announceWinners();
-        System.out.println("Dealer thread terminated.");
+        stats.endTime = env.clock.millis();
+        env.logger.info("game stats: " + stats);
+        logClaimLatencies();
+        env.logger.info("Dealer thread terminated.");
 
     }
 
@@ -116,19 +277,24 @@ public class Dealer implements Runnable {
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
     private void timerLoop() {
-        reshuffleTime = env.config.turnTimeoutMillis + System.currentTimeMillis(); //time to reshuffle the deck
+        reshuffleTime = env.config.turnTimeoutMillis + env.clock.millis(); //time to reshuffle the deck
         int i = 0;
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
-            sleepUntilWokenOrTimeout();
+        while (!terminate && env.clock.millis() < reshuffleTime) {
             if (i == 0) {
-                table.hints();
+                if (env.config.hints) table.hints();
                 i++;
             }
-            updateTimerDisplay(false);
-            removeCardsFromTable();
-            placeCardsOnTable();
-
-
+            switch (sleepUntilWokenOrTimeout()) {
+                case CLAIM:
+                    removeCardsFromTable();
+                    placeCardsOnTable();
+                    break;
+                case TICK:
+                    updateTimerDisplay(false);
+                    break;
+                case RESHUFFLE:
+                    break;
+            }
         }
 
 
@@ -143,12 +309,23 @@ public class Dealer implements Runnable {
 
 
             this.terminate = true;
+            synchronized (table.gameflowlock) {
+                table.gameflowlock.notifyAll(); // wake the dealer thread up if it is waiting
+            }
 
 
             for (int i = players.length-1; i >= 0; i--) {
                 players[i].terminate();
-                playersThread[i].join();
+                if (playersThread[i] != null) playersThread[i].join();
+                // a simulated player runs on the virtual clock, on this thread: it cannot be in a run now
+                else if (!(env.clock instanceof VirtualClock)) players[i].awaitTermination();
             }
+            if (playersExecutor != null) {
+                playersExecutor.shutdownNow();
+                playersExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            if (wheelTimer != null) wheelTimer.stop();
+            if (timerThread != null) timerThread.join();
 
 
 
@@ -156,76 +333,138 @@ public class Dealer implements Runnable {
     }
 
     /**
-     * Check if the game should be terminated or the game end conditions are met.
-     *
-     * @return true iff the game should be finished.
+     * @return - the timer shared by all the players.
      */
-    private boolean shouldFinish() {
-        List<Integer> deckontable = Arrays.stream(table.slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        List<int[]> setontable = env.util.findSets(deckontable, 1);
-        List<int[]> setsondeck = env.util.findSets(deck, 1);
-        return (setontable.isEmpty() && setsondeck.isEmpty());
+    Scheduler timer() {
+        return timer;
     }
 
     /**
-     * Checks cards should be removed from the table and removes them.
+     * @param player - the id of a player.
+     * @return - the time the player's claims waited, from the placement of their last token until the dealer took
+     * them to be checked.
      */
+    public LatencyHistogram claimWait(int player) {
+        return claimWait[player];
+    }
+
     /**
-     * Checks cards should be removed from the table and removes them.
+     * @param player - the id of a player.
+     * @return - the time the dealer took to decide the player's claims.
      */
-    private void removeCardsFromTable() {
-        // TODO implement
-        try {
-            if (!claimSets.isEmpty()) {
-                int playerid = claimSets.take(); //the player id we should remove the set cards froom thr table
-                int[] playerCards = table.playerSetsCards(playerid); //get the player cards of the set
-                if (table.playerTokensCountrs[playerid] == env.config.featureSize) {
-                    if (legelSet(playerCards)) {
-
-                        synchronized (players[playerid].playerLock) {
-
-                            for (int i = 0; i < playerCards.length; i++) {
-                                int card = playerCards[i];
-                                int slot = table.cardToSlot[card];
-                                table.removeTokens(slot);
-                                table.removeCard(slot);
-                                env.ui.removeCard(slot); //UI update
-
-
-                            }
+    public LatencyHistogram claimVerification(int player) {
+        return claimVerification[player];
+    }
 
-                            players[playerid].playerLock.notifyAll();
-                        }
+    private void logClaimLatencies() {
+        if (!env.logger.isLoggable(Level.INFO)) return;
+        for (int i = 0; i < players.length; i++)
+            if (claimWait[i].count() > 0)
+                env.logger.info("player " + (i + 1) + " claim wait: " + claimWait[i] + ", verification: "
+                        + claimVerification[i]);
+        if (env.trace.enabled()) env.logger.info(env.trace.dump());
+    }
 
-                        players[playerid].point();
+    /**
+     * @return - the statistics of the game (complete once the dealer thread terminates).
+     */
+    public GameStats stats() {
+        return stats;
+    }
 
+    /**
+     * Check if the game should be terminated or the game end conditions are met
+     * (i.e. there is no legal set left among the cards in the deck and on the table).
+     *
+     * @return true iff the game should be finished.
+     */
+    private boolean shouldFinish() {
+        return !cardsInPlay.anySet();
+    }
 
-                    } else {
+    /**
+     * Checks cards should be removed from the table and removes them.
+     * All the pending claims are drained at once: they are decided in the order of their timestamps (the time the
+     * last token was placed, not the time the claim reached the queue), and a claim made before the cards were last
+     * returned to the deck, or whose cards were taken by a set accepted earlier in the batch (or whose tokens were
+     * removed meanwhile) is dropped without a penalty. The tokens and cards of the whole batch are then removed before
+     * the players are notified.
+     */
+    private void removeCardsFromTable() {
+        claimBatch.clear();
+        claimSets.drainTo(claimBatch);
+        claimBatch.sort(CLAIM_ORDER);
+        int claims = claimBatch.size();
+
+        // decide all the claims
+        for (int i = 0; i < claims; i++) {
+            Claim claim = claimBatch.get(i);
+            int playerid = claim.player;
+            long start = System.nanoTime();
+            claimWait[playerid].record(start - claim.nanos);
+            env.trace.stamp(claim.trace, KeyTrace.Stage.CLAIMED);
+            int[] playerCards = claimCards[playerid];
+            int count = table.playerSetsCards(playerid, playerCards); //get the player cards of the set
+            claimCardCounts[playerid] = count;
+            if (claim.epoch < clearedEpoch || table.countTokens(playerid) != env.config.featureSize
+                    || count != env.config.featureSize || anyCollected(playerCards))
+                verdicts[i] = Verdict.STALE;
+            else if (legelSet(playerCards)) {
+                verdicts[i] = Verdict.POINT;
+                for (int card : playerCards)
+                    collectedCards[card] = true;
+            } else
+                verdicts[i] = Verdict.PENALTY;
+            claimVerification[playerid].record(System.nanoTime() - start);
+            env.trace.stamp(claim.trace, KeyTrace.Stage.DECIDED);
+        }
 
-                        for (int i = 0; i < playerCards.length; i++) {
-                            int card = playerCards[i];
-                            int slot = table.cardToSlot[card];
-                            table.removeToken(playerid, slot);
-                        }
-                        players[playerid].penalty();
-                        synchronized (players[playerid].playerLock) {
-                            players[playerid].playerLock.notifyAll();
-                        }
-                    }
-                }
-                synchronized (players[playerid].playerLock) {
-                    players[playerid].playerLock.notifyAll();
+        // remove the tokens and the cards of the whole batch
+        for (int i = 0; i < claims; i++)
+            if (verdicts[i] == Verdict.PENALTY) {
+                int player = claimBatch.get(i).player;
+                for (int c = 0; c < claimCardCounts[player]; c++)
+                    table.removeToken(player, table.cardToSlot[claimCards[player][c]]);
+            }
+        for (int i = 0; i < claims; i++)
+            if (verdicts[i] == Verdict.POINT)
+                for (int card : claimCards[claimBatch.get(i).player]) {
+                    int slot = table.cardToSlot[card];
+                    table.closeSlot(slot); // before its tokens are cleared (see Table.placeToken)
+                    table.removeTokens(slot);
+                    table.removeCard(slot);
+                    cardsInPlay.remove(card);
+                    collectedCards[card] = false;
                 }
 
-
+        // let the players know
+        for (int i = 0; i < claims; i++) {
+            Player player = players[claimBatch.get(i).player];
+            stats.claims++;
+            if (verdicts[i] == Verdict.POINT) {
+                player.point();
+                stats.setsFound++;
+            } else if (verdicts[i] == Verdict.PENALTY) {
+                player.penalty();
+                stats.penalties++;
             }
+            player.claimChecked();
+            env.ui.claimChecked(player.id, verdicts[i].uiCode);
+            env.trace.end(claimBatch.get(i).trace, KeyTrace.Stage.UI_NOTIFIED);
+        }
+
+        try {
             if (shouldFinish())
                 terminate();
-
         } catch (InterruptedException ignored) { //check if other thread is Interrupted
 
         }
+    }
 
+    private boolean anyCollected(int[] cards) {
+        for (int card : cards)
+            if (collectedCards[card]) return true;
+        return false;
     }
 
 
@@ -234,7 +473,6 @@ public class Dealer implements Runnable {
      */
     private void placeCardsOnTable() {
 
-        Collections.shuffle(deck);
         List<Integer> emptySlots = new ArrayList<>();
 
         for (int i = 0; i < env.config.tableSize; i++)
@@ -243,65 +481,81 @@ public class Dealer implements Runnable {
                 emptySlots.add(i);
         }
 
-        Collections.shuffle(emptySlots);
+        Collections.shuffle(emptySlots, ThreadLocalRandom.current());
 
         for (int i :emptySlots ) {
             if (deck.isEmpty()) {
                 break; //should terminate?
             } else if (table.slotToCard[i] == null) {
-                table.placeCard(deck.get(0), i);
-                deck.remove(0);
+                table.placeCard(deck.draw(ThreadLocalRandom.current()), i);
                 updateTimerDisplay(true);
 
             }
         }
-        synchronized (dealerlock) {
-            table.canplay = true;
-            dealerlock.notifyAll();//when finish placing the card notify the players
-        }
+        table.canplay = true;
+        for (Player player : players)
+            player.tableOpened(); //when finish placing the card notify the players
 
 
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * Called by a player thread to claim a set: queues the claim and wakes the dealer thread up to check it.
+     *
+     * @param claim - the claim.
      */
-    private void sleepUntilWokenOrTimeout() {
+    public void claimSet(Claim claim) throws InterruptedException {
+        claimSets.put(claim);
         synchronized (table.gameflowlock) {
-            if (reshuffleTime - System.currentTimeMillis() <= env.config.turnTimeoutWarningMillis) {
-                try {
-                    table.gameflowlock.wait(10);
-                    if (shouldFinish())
-                        terminate();
-
-                } catch (InterruptedException ignored) {
+            table.gameflowlock.notifyAll();
+        }
+    }
 
-                }
-            } else {
+    /**
+     * Sleep until a claim arrives, the countdown display should be updated (every second, or every WARNING_TICK_MILLIS
+     * during the warning) or the turn times out - whichever comes first.
+     *
+     * @return - the reason for waking up.
+     */
+    private WakeReason sleepUntilWokenOrTimeout() {
+        synchronized (table.gameflowlock) {
+            long now = env.clock.millis();
+            long wakeTime = Math.min(reshuffleTime, nextTick(now));
+            while (!terminate && claimSets.isEmpty() && now < wakeTime) {
                 try {
-                    table.gameflowlock.wait(1000);
-                    if (shouldFinish())
-                        terminate();
-
+                    env.clock.await(table.gameflowlock, wakeTime);
                 } catch (InterruptedException ignored) {
-
                 }
+                now = env.clock.millis();
             }
+            if (!claimSets.isEmpty()) return WakeReason.CLAIM;
+            return now >= reshuffleTime ? WakeReason.RESHUFFLE : WakeReason.TICK;
         }
     }
 
+    /**
+     * @return - the time the countdown display should be updated next: when the displayed second changes, when the
+     * warning starts, or WARNING_TICK_MILLIS from now during the warning.
+     */
+    private long nextTick(long now) {
+        long remaining = reshuffleTime - now;
+        if (remaining <= env.config.turnTimeoutWarningMillis) return now + WARNING_TICK_MILLIS;
+        long nextSecond = remaining % 1000 == 0 ? now + 1000 : now + remaining % 1000;
+        return Math.min(nextSecond, reshuffleTime - env.config.turnTimeoutWarningMillis);
+    }
+
         /**
          * Reset and/or update the countdown and the countdown display.
          */
         private void updateTimerDisplay ( boolean reset){
             // TODO implement
             if (!reset) {
-                if (reshuffleTime - System.currentTimeMillis() <= env.config.turnTimeoutWarningMillis) {
-                    env.ui.setCountdown(reshuffleTime - System.currentTimeMillis(), true);
+                if (reshuffleTime - env.clock.millis() <= env.config.turnTimeoutWarningMillis) {
+                    env.ui.setCountdown(reshuffleTime - env.clock.millis(), true);
                 } else
-                    env.ui.setCountdown(reshuffleTime - System.currentTimeMillis(), false);
+                    env.ui.setCountdown(reshuffleTime - env.clock.millis(), false);
             } else {
-                reshuffleTime = env.config.turnTimeoutMillis + System.currentTimeMillis();
+                reshuffleTime = env.config.turnTimeoutMillis + env.clock.millis();
                 env.ui.setCountdown(env.config.turnTimeoutMillis, false);
             }
         }
@@ -312,33 +566,12 @@ public class Dealer implements Runnable {
         private void removeAllCardsFromTable () throws InterruptedException {
             // TODO implement
             table.canplay = false;
-            try {
-                // check all the avalible sets on the Q
-                while (!claimSets.isEmpty()) {
-                    if (legelSet()) {
-                        int player = claimSets.take(); //the player id we should remove the set cards from the tab
-                        players[player].point();
-                    } else {
-                        int player = claimSets.take();
-                        players[player].penalty();
-                    }
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace(); // Handle or log the exception as needed
-            }
+            removeCardsFromTable(); // check all the claims still in the queue
 
             //remove all the tokenes
-            for (int i = 0; i < table.playerTokensCountrs.length; i++) {  //initilize playerTokensCountrs
-                table.playerTokensCountrs[i] = 0;
-            }
-            for (int i = 0; i < table.playersTokensSlots.length; i++) {   //initilize playersTokensSlots
-                for (int j = 0; j < table.playersTokensSlots[i].length; j++) {
-                    table.playersTokensSlots[i][j] = false;
-                }
-            }
-            for (int i = 0; i < env.config.tableSize; i++) {  //UI update
-                env.ui.removeTokens(i);
-            }
+            for (int slot = 0; slot < env.config.tableSize; slot++)
+                table.closeSlot(slot);
+            table.removeAllTokens();
 
             List<Integer> fullSlots = new ArrayList<>();
 
@@ -348,7 +581,7 @@ public class Dealer implements Runnable {
                     fullSlots.add(i);
             }
 
-            Collections.shuffle(fullSlots);
+            Collections.shuffle(fullSlots, ThreadLocalRandom.current());
 
 
             //removing the cards and return them to the deck
@@ -359,12 +592,7 @@ public class Dealer implements Runnable {
                     deck.add(card);
                 }
             }
-            for (int i = 0; i < players.length; i++) {
-                synchronized (players[i].playerLock) {
-                    players[i].playerLock.notifyAll();
-                }
-            }
-
+            clearedEpoch = table.epoch();
             if (shouldFinish())
                 terminate();//call terminate function
         }
@@ -401,24 +629,6 @@ public class Dealer implements Runnable {
 
         // Added by us!
 
-        /**
-         * checks for legal set for the rhe first player in the claimSets queue
-         */
-
-        private boolean legelSet () {
-            if (!claimSets.isEmpty()) {
-                int id = claimSets.element();
-                int[] set = table.playerSetsCards(id);
-                boolean isLegelSet = env.util.testSet(set);
-                return isLegelSet;
-            } else {
-                return false;
-            }
-
-
-        }
-
-
         private boolean legelSet ( int[] set){
             boolean isLegelSet = env.util.testSet(set);
             return isLegelSet;
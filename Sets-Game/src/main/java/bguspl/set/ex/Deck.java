@@ -0,0 +1,81 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * The dealer's deck: the card ids in a primitive array, drawn in a random order.
+ * The deck is never shuffled as a whole: draw picks a random card among the ones left and swaps it to the end of the
+ * live part of the array (a lazy Fisher-Yates shuffle), so drawing and returning a card are O(1).
+ *
+ * @inv the first size entries of cards are the cards in the deck (in no particular order)
+ */
+public class Deck {
+
+    private final int[] cards;
+    private int size;
+
+    /**
+     * Creates a full deck.
+     *
+     * @param deckSize - the number of cards (with ids from 0 to deckSize - 1).
+     */
+    public Deck(int deckSize) {
+        cards = new int[deckSize];
+        for (int card = 0; card < deckSize; card++)
+            add(card);
+    }
+
+    /**
+     * @return - the number of cards in the deck.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - true iff the deck is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Draws a random card from the deck.
+     *
+     * @param random - the source of randomness.
+     * @return - the card drawn.
+     *
+     * @pre - the deck is not empty.
+     * @post - the card drawn is not in the deck.
+     */
+    public int draw(Random random) {
+        if (size == 0) throw new IllegalStateException("the deck is empty");
+        int index = random.nextInt(size--);
+        int card = cards[index];
+        cards[index] = cards[size];
+        cards[size] = card;
+        return card;
+    }
+
+    /**
+     * Returns a card to the deck.
+     *
+     * @param card - the card to return.
+     *
+     * @pre - the card is not in the deck.
+     */
+    public void add(int card) {
+        cards[size++] = card;
+    }
+
+    /**
+     * Performs an action for each card in the deck.
+     *
+     * @param action - the action to perform.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++)
+            action.accept(cards[i]);
+    }
+}
@@ -0,0 +1,55 @@
+package bguspl.set.ex;
+
+/**
+ * The statistics of a game, collected by the dealer.
+ */
+public class GameStats {
+
+    int setsFound;
+    int reshuffles;
+    int claims;
+    int penalties;
+    long startTime;
+    long endTime;
+
+    /**
+     * @return - the number of legal sets claimed (the points awarded).
+     */
+    public int setsFound() {
+        return setsFound;
+    }
+
+    /**
+     * @return - the number of times the table was reshuffled because the turn timed out.
+     */
+    public int reshuffles() {
+        return reshuffles;
+    }
+
+    /**
+     * @return - the number of set claims checked by the dealer (including the ones dropped as stale).
+     */
+    public int claims() {
+        return claims;
+    }
+
+    /**
+     * @return - the number of penalties given for illegal sets.
+     */
+    public int penalties() {
+        return penalties;
+    }
+
+    /**
+     * @return - the duration of the game in milliseconds (of the game's clock).
+     */
+    public long durationMillis() {
+        return endTime - startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "sets=" + setsFound + " reshuffles=" + reshuffles + " claims=" + claims + " penalties=" + penalties
+                + " duration=" + durationMillis() + "ms";
+    }
+}
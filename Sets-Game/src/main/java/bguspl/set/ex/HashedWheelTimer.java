@@ -0,0 +1,195 @@
+package bguspl.set.ex;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * A timer that runs short tasks after a delay, on a single thread, for any number of scheduled tasks.
+ * Time is split into ticks of tickMillis, and the tasks are kept in a wheel of buckets indexed by the tick they are due
+ * in (modulo the wheel size), so scheduling a task and expiring the due ones cost O(1) per task. The timer thread
+ * waits without ticking while nothing is scheduled. A cancelled task stays in its bucket until the timer gets to it.
+ *
+ * @inv tickMillis > 0
+ * @inv wheel.length is a power of 2
+ */
+public class HashedWheelTimer implements Runnable, Scheduler {
+
+    /**
+     * A scheduled task, linked into its bucket of the wheel.
+     */
+    private static final class Timeout implements Task {
+
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;    // the wheel turns left before the task is due
+        private Timeout next;
+        private final AtomicBoolean done = new AtomicBoolean(); // run or cancelled
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return - true iff the task may run (it was neither cancelled nor run before).
+         */
+        private boolean claim() {
+            return done.compareAndSet(false, true);
+        }
+
+        @Override
+        public boolean cancel() {
+            return claim();
+        }
+    }
+
+    private final Logger logger;
+
+    /**
+     * The duration of a tick in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * The buckets of the wheel (linked lists of timeouts), and the mask of a bucket index.
+     */
+    private final Timeout[] wheel;
+    private final int mask;
+
+    /**
+     * The tasks scheduled since the last tick (moved into the wheel by the timer thread).
+     */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of timeouts in the wheel (only accessed by the timer thread).
+     */
+    private int timeouts;
+
+    /**
+     * The time of tick 0.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * True iff the timer thread waits for a task to be scheduled (nothing is scheduled).
+     */
+    private volatile boolean idle;
+
+    private final Object lock = new Object();
+    private volatile boolean stopped;
+
+    /**
+     * @param logger     - the logger to report failed tasks to.
+     * @param tickMillis - the duration of a tick (the precision of the timer) in milliseconds.
+     * @param wheelSize  - the number of buckets of the wheel (rounded up to a power of 2).
+     */
+    public HashedWheelTimer(Logger logger, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        this.logger = logger;
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        wheel = new Timeout[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Schedules a task (that should be short, as it runs on the timer thread).
+     *
+     * @param task        - the task to run.
+     * @param delayMillis - the delay before running the task in milliseconds.
+     * @return - the scheduled task (to cancel it).
+     */
+    @Override
+    public Task schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + Math.max(0, delayMillis));
+        pending.add(timeout);
+        if (idle)
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        return timeout;
+    }
+
+    /**
+     * Stops the timer (the tasks not run yet are dropped).
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The timer thread starts here: runs the due tasks every tick.
+     */
+    @Override
+    public void run() {
+        long tick = 0;
+        while (true) {
+            synchronized (lock) {
+                try {
+                    idle = timeouts == 0;
+                    while (!stopped && idle && pending.isEmpty())
+                        lock.wait();
+                    idle = false;
+                    if (timeouts == 0) tick = Math.max(tick, (System.currentTimeMillis() - startTime) / tickMillis);
+                    long due = startTime + tick * tickMillis;
+                    long now;
+                    while (!stopped && (now = System.currentTimeMillis()) < due)
+                        lock.wait(due - now);
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+                if (stopped) return;
+            }
+            transferPending(tick);
+            expire(tick++);
+        }
+    }
+
+    /**
+     * Moves the newly scheduled tasks into the bucket of the tick they are due in (or of the current tick if late).
+     */
+    private void transferPending(long tick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long dueTick = Math.max(tick, (timeout.deadline - startTime + tickMillis - 1) / tickMillis);
+            timeout.rounds = (dueTick - tick) / wheel.length;
+            int bucket = (int) (dueTick & mask);
+            timeout.next = wheel[bucket];
+            wheel[bucket] = timeout;
+            timeouts++;
+        }
+    }
+
+    /**
+     * Runs the tasks of the bucket of the tick that are due in this turn of the wheel (and drops the cancelled ones).
+     */
+    private void expire(long tick) {
+        int bucket = (int) (tick & mask);
+        Timeout previous = null;
+        Timeout timeout = wheel[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds > 0 && !timeout.done.get()) {
+                timeout.rounds--;
+                previous = timeout;
+            } else {
+                if (previous == null) wheel[bucket] = next;
+                else previous.next = next;
+                timeouts--;
+                if (timeout.claim())
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        logger.warning("timer task failed: " + e);
+                    }
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package bguspl.set.ex;
+
+/**
+ * A histogram of durations in nanoseconds, with a fixed relative precision (in the manner of HdrHistogram).
+ * Values below 16 are counted exactly, and every power of 2 above is split into 16 linear buckets, so a percentile is
+ * reported to within 1/16 (6.25%) of the recorded value, in a fixed array of buckets and with no allocation.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of linear sub-buckets in each power of 2 (and the bits of a value that select one).
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[bucketIndex(Long.MAX_VALUE) + 1];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos - the duration in nanoseconds (negative durations are recorded as 0).
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucketIndex(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * @return - the number of durations recorded.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @return - the longest duration recorded (0 if none).
+     */
+    public synchronized long max() {
+        return max;
+    }
+
+    /**
+     * @return - the mean of the durations recorded (0 if none).
+     */
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile - the percentile (between 0 and 100).
+     * @return - the smallest duration such that the given percentage of the durations recorded are at most that long
+     * (up to the precision of the histogram, and 0 if nothing was recorded).
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank) return Math.min(max, highestValue(index));
+        }
+        return max;
+    }
+
+    /**
+     * Adds the durations recorded by another histogram to this one.
+     *
+     * @param other - the histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        long[] otherCounts;
+        long otherCount, otherSum, otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int index = 0; index < counts.length; index++)
+                counts[index] += otherCounts[index];
+            count += otherCount;
+            sum += otherSum;
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    /**
+     * @return - the count, the mean, the 50th, 90th and 99th percentiles and the maximum, in microseconds.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", count, mean() / 1e3,
+                percentile(50) / 1e3, percentile(90) / 1e3, percentile(99) / 1e3, max / 1e3);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
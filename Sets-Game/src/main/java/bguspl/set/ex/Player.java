@@ -1,12 +1,16 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.KeyTrace;
 
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -42,6 +46,79 @@ public class Player implements Runnable {
      */
     private Thread aiThread;
 
+    /**
+     * The shared executor the player runs on (null if the player runs on its own thread, see Config.playersOnExecutor).
+     */
+    private Executor executor;
+
+    /**
+     * True iff a run of the player is scheduled on the shared executor (so at most one runs at a time).
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * A message to the player: a key press, or an event the player waits for.
+     */
+    private static final class Message {
+
+        private enum Type {
+            KEY,            // a key was pressed
+            TABLE_OPEN,     // the dealer opened the table for play
+            VERDICT,        // the dealer checked the player's claim
+            FREEZE_TICK     // the freeze countdown should be updated
+        }
+
+        private final Type type;
+        private final int slot;
+        private final long trace; // the trace of a key press (see KeyTrace)
+
+        private Message(Type type, int slot) {
+            this(type, slot, KeyTrace.NONE);
+        }
+
+        private Message(Type type, int slot, long trace) {
+            this.type = type;
+            this.slot = slot;
+            this.trace = trace;
+        }
+    }
+
+    private static final Message TABLE_OPEN = new Message(Message.Type.TABLE_OPEN, -1);
+    private static final Message VERDICT = new Message(Message.Type.VERDICT, -1);
+    private static final Message FREEZE_TICK = new Message(Message.Type.FREEZE_TICK, -1);
+
+    /**
+     * The key press message of each slot (so key presses do not allocate, unless they are traced).
+     */
+    private final Message[] keyMessages;
+
+    /**
+     * The messages to the player, handled one at a time by the player thread (or by its runs on the shared executor).
+     */
+    private final BlockingQueue<Message> mailbox = new LinkedBlockingQueue<>();
+
+    /**
+     * The key presses received but not applied yet (only accessed when handling messages), and their number including
+     * the ones still in the mailbox (at most featureSize).
+     */
+    private final Queue<Message> pendingKeys = new ArrayDeque<>();
+    private final AtomicInteger queuedKeys = new AtomicInteger();
+
+    /**
+     * The time the player's freeze ends (the player is frozen while the current time is before it).
+     */
+    private volatile long frozenUntil;
+
+    /**
+     * The next update of the freeze countdown on the dealer's timer (cancelled when the player terminates).
+     */
+    private volatile Scheduler.Task nextFreezeTick;
+
+    /**
+     * The delay between two key presses of an AI (computer) player.
+     */
+    private static final long AI_KEY_DELAY_MILLIS = 100;
+
     /**
      * True iff the player is human (not a computer player).
      */
@@ -60,11 +137,11 @@ public class Player implements Runnable {
     private final Dealer dealer;
 
 
-    public BlockingQueue<Integer> keys;
-
+    /**
+     * False while the player's claim is being checked (key presses are ignored meanwhile).
+     */
     public volatile boolean canplay = true;
 
-    public  Object playerLock = new Object();
      public boolean sleepforpoint = false;
      public boolean sleepfrpanelty =false;
 
@@ -84,7 +161,9 @@ public class Player implements Runnable {
         this.id = id;
         this.human = human;
         this.dealer = dealer;
-        keys = new LinkedBlockingQueue<Integer>(env.config.featureSize);
+        keyMessages = new Message[env.config.tableSize];
+        for (int slot = 0; slot < keyMessages.length; slot++)
+            keyMessages[slot] = new Message(Message.Type.KEY, slot);
         this.score=0;
 
 
@@ -92,83 +171,24 @@ public class Player implements Runnable {
 
     /**
      * The main player thread of each player starts here (main loop for the player thread).
+     * The thread blocks on the player's mailbox and handles one message at a time, so an idle player uses no CPU.
      */
     @Override
     public void run() {
         playerThread = Thread.currentThread();
-        System.out.println("Player " + id + " thread started.");
+        env.logger.info("Player " + id + " thread started.");
 
         if (!human) createArtificialIntelligence();
 
         while (!terminate) {
-            synchronized (dealer.dealerlock){
-            while (!table.canplay) {
-                try {
-                    dealer.dealerlock.wait();
-                } catch (InterruptedException e) {
-                    terminate();
-                }
-            }
-            }
-            if (!keys.isEmpty()) {
-                int slot = keys.poll();
-
-                if (table.playersTokensSlots[id][slot]) {
-                    table.removeToken(id, slot);
-
-                } else {
-                    table.placeToken(id, slot);
-
-                }
-            }
-            if (table.playerTokensCountrs[id] == env.config.featureSize) {
-
-                synchronized (playerLock) {
-                    try {
-
-                        canplay = false;
-                        dealer.getClaimSets().put(id);// here he need to sleep until dealer check is set
-                    } catch (InterruptedException e) {
-                        terminate();
-                    }
-                    try{
-
-                        playerLock.wait();
-                    }
-                    catch(InterruptedException e){terminate();}
-                }
-
-                        canplay = true;
-                    }
-
-            if (sleepforpoint) {
-                env.ui.setFreeze(id,env.config.pointFreezeMillis);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    terminate();
-                }
-                env.ui.setFreeze(id,0);
-                sleepforpoint = false;
-            }
-
-            if (sleepfrpanelty) {
-                for(long i = env.config.penaltyFreezeMillis/1000; i>0; i--){
-
-                    env.ui.setFreeze(id,i*1000);
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ignored) {
-                        terminate();
-                    }
-
-                }
-                env.ui.setFreeze(id,0);
-                sleepfrpanelty = false;
+            try {
+                handle(mailbox.take());
+            } catch (InterruptedException e) {
+                terminate();
             }
         }
         if (!human) try { aiThread.join(); } catch (InterruptedException ignored) {}
-        System.out.println("Player " + id + " thread terminated.");
+        env.logger.info("Player " + id + " thread terminated.");
     }
 
 
@@ -182,9 +202,9 @@ public class Player implements Runnable {
         aiThread = new Thread(() -> {
             while (!terminate) {
                 // TODO implement player key press simulator
-                int randomNum = (int)(Math.random() * (env.config.tableSize));
+                int randomNum = ThreadLocalRandom.current().nextInt(env.config.tableSize);
                 try {
-                    Thread.sleep(100);
+                    Thread.sleep(AI_KEY_DELAY_MILLIS);
                 } catch (InterruptedException e) {
                 terminate();
                     
@@ -197,13 +217,177 @@ public class Player implements Runnable {
         aiThread.start();
     }  
 
+    /**
+     * Starts the player on a shared executor instead of a thread of its own: the player then runs only when there are
+     * messages in its mailbox, and an AI player's key presses are periodic tasks of the dealer's timer.
+     *
+     * @param executor - the executor shared by all the players.
+     */
+    public void start(Executor executor) {
+        this.executor = executor;
+        env.logger.fine("Player " + id + " started on the shared executor.");
+        if (!human) dealer.timer().schedule(this::pressRandomKey, AI_KEY_DELAY_MILLIS);
+    }
+
+    /**
+     * Generates a key press of an AI player running on the shared executor, and schedules the next one.
+     */
+    private void pressRandomKey() {
+        if (terminate) return;
+        keyPressed(ThreadLocalRandom.current().nextInt(env.config.tableSize));
+        dealer.timer().schedule(this::pressRandomKey, AI_KEY_DELAY_MILLIS);
+    }
+
+    /**
+     * Posts a message to the player's mailbox (and schedules a run of a player on the shared executor).
+     */
+    private void post(Message message) {
+        mailbox.offer(message);
+        schedule();
+    }
+
+    private void schedule() {
+        if (executor != null && !terminate && scheduled.compareAndSet(false, true))
+            executor.execute(this::runScheduled);
+    }
+
+    /**
+     * Handles the messages in the mailbox of a player running on the shared executor.
+     */
+    private void runScheduled() {
+        try {
+            Message message;
+            while (!terminate && (message = mailbox.poll()) != null)
+                handle(message);
+        } finally {
+            synchronized (scheduled) {
+                scheduled.set(false);
+                scheduled.notifyAll(); // for awaitTermination
+            }
+        }
+        if (!mailbox.isEmpty()) schedule(); // a message may have arrived after the last poll
+    }
+
+    /**
+     * Waits for the run of a terminated player on the shared executor to end, if it is in one (the executor mode's
+     * counterpart of joining the player thread).
+     */
+    public void awaitTermination() throws InterruptedException {
+        synchronized (scheduled) {
+            while (scheduled.get())
+                scheduled.wait();
+        }
+    }
+
+    /**
+     * Handles a message of the mailbox, then applies the pending key presses if the player may play.
+     */
+    private void handle(Message message) {
+        switch (message.type) {
+            case KEY:
+                env.trace.stamp(message.trace, KeyTrace.Stage.POLLED);
+                pendingKeys.add(message);
+                break;
+            case TABLE_OPEN:
+                break;
+            case VERDICT:
+                if (canplay) break; // the player has no claim waiting
+                canplay = true;
+                if (sleepforpoint) {
+                    sleepforpoint = false;
+                    freeze(env.config.pointFreezeMillis);
+                } else if (sleepfrpanelty) {
+                    sleepfrpanelty = false;
+                    freeze(env.config.penaltyFreezeMillis);
+                }
+                break;
+            case FREEZE_TICK:
+                freezeTick();
+                break;
+        }
+        applyKeys();
+    }
+
+    /**
+     * Places or removes a token for each pending key press, and claims a set once the player has placed all of its
+     * tokens. Key presses wait while the table is closed, a claim is being checked or the player is frozen.
+     */
+    private void applyKeys() {
+        while (!pendingKeys.isEmpty() && table.canplay && canplay && !isFrozen()) {
+            Message key = pendingKeys.poll();
+            int slot = key.slot;
+            queuedKeys.decrementAndGet();
+            if (table.hasToken(id, slot)) table.removeToken(id, slot);
+            else table.placeToken(id, slot);
+
+            if (table.countTokens(id) == env.config.featureSize) {
+                canplay = false;
+                env.trace.stamp(key.trace, KeyTrace.Stage.TOKEN);
+                try {
+                    // never blocks: each player has at most one claim in the queue
+                    dealer.claimSet(new Claim(id, System.nanoTime(), table.epoch(), key.trace));
+                } catch (InterruptedException e) {
+                    terminate();
+                }
+            } else env.trace.end(key.trace, KeyTrace.Stage.TOKEN);
+        }
+    }
+
+    /**
+     * Called by the dealer when it opens the table for play.
+     */
+    public void tableOpened() {
+        post(TABLE_OPEN);
+    }
+
+    /**
+     * Called by the dealer after checking the player's claim (and calling point() or penalty() accordingly).
+     */
+    public void claimChecked() {
+        post(VERDICT);
+    }
+
+    /**
+     * Freezes the player for the given duration. The countdown of the remaining seconds (and the end of the freeze) are
+     * FREEZE_TICK messages posted by the dealer's shared timer.
+     */
+    private void freeze(long millies) {
+        if (millies <= 0) {
+            env.ui.setFreeze(id, 0);
+            return;
+        }
+        frozenUntil = env.clock.millis() + millies;
+        freezeTick();
+    }
+
+    /**
+     * Updates the freeze countdown to the remaining seconds (rounded up), and schedules its next update for when the
+     * displayed second changes.
+     */
+    private void freezeTick() {
+        long remaining = frozenUntil - env.clock.millis();
+        if (remaining <= 0) {
+            env.ui.setFreeze(id, 0);
+            return;
+        }
+        long seconds = (remaining + 999) / 1000;
+        env.ui.setFreeze(id, seconds * 1000);
+        nextFreezeTick = dealer.timer().schedule(() -> post(FREEZE_TICK), remaining - (seconds - 1) * 1000);
+    }
+
+    private boolean isFrozen() {
+        return env.clock.millis() < frozenUntil;
+    }
+
     /**
      * Called when the game should be terminated.
      */
     public void terminate() {
         // TODO implement
         terminate = true;
-        playerThread.interrupt();
+        Scheduler.Task tick = nextFreezeTick;
+        if (tick != null) tick.cancel(); // the timer may be shared with other games, that go on
+        if (playerThread != null) playerThread.interrupt();
 
     }
 
@@ -213,13 +397,31 @@ public class Player implements Runnable {
      * @param slot - the slot corresponding to the key pressed.
      */
     public void keyPressed(int slot) {
-            if(keys.size() < env.config.featureSize && this.canplay){
-                try{
+        keyPressed(slot, System.nanoTime());
+    }
 
-                    keys.put(slot);}
-                catch(InterruptedException ignored) {terminate();}
-            }
+    /**
+     * This method is called when a key is pressed.
+     *
+     * @param slot         - the slot corresponding to the key pressed.
+     * @param pressedNanos - the time (System.nanoTime) the key was pressed (for tracing the key press, see KeyTrace).
+     */
+    public void keyPressed(int slot, long pressedNanos) {
+        long trace = env.trace.begin(pressedNanos);
+        if (!canplay || isFrozen()) {
+            env.trace.ignore(trace);
+            return;
         }
+        int queued;
+        do {
+            queued = queuedKeys.get();
+            if (queued >= env.config.featureSize) { // drop the key press, as there are enough pending
+                env.trace.ignore(trace);
+                return;
+            }
+        } while (!queuedKeys.compareAndSet(queued, queued + 1));
+        post(trace == KeyTrace.NONE ? keyMessages[slot] : new Message(Message.Type.KEY, slot, trace));
+    }
 
 
     /**
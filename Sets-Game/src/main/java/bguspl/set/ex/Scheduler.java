@@ -0,0 +1,29 @@
+package bguspl.set.ex;
+
+/**
+ * Runs tasks after a delay.
+ */
+public interface Scheduler {
+
+    /**
+     * A scheduled task.
+     */
+    interface Task {
+
+        /**
+         * Cancels the task, if it did not run yet.
+         *
+         * @return - true iff the task will not run (false if it ran, or is running).
+         */
+        boolean cancel();
+    }
+
+    /**
+     * Schedules a task (that should be short).
+     *
+     * @param task        - the task to run.
+     * @param delayMillis - the delay before running the task in milliseconds.
+     * @return - the scheduled task (to cancel it).
+     */
+    Task schedule(Runnable task, long delayMillis);
+}
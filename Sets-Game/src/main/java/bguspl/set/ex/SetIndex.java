@@ -0,0 +1,125 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An incrementally maintained index of the legal sets in a changing collection of cards.
+ * Adding or removing a card only searches the sets that involve that card, so asking whether there is a set is O(1).
+ *
+ * @inv cards[position[card]] == card iff card is in the collection
+ * @inv setCount == the number of legal sets in the collection
+ */
+public class SetIndex {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The cards in the collection (the first size entries, in no particular order).
+     */
+    private final int[] cards;
+
+    /**
+     * Mapping between a card and its index in cards (-1 if not in the collection).
+     */
+    private final int[] position;
+
+    /**
+     * The number of cards in the collection.
+     */
+    private int size;
+
+    /**
+     * The number of legal sets in the collection.
+     */
+    private volatile int setCount;
+
+    /**
+     * The legal sets in the collection (null if the sets are only counted).
+     */
+    private final List<int[]> sets;
+
+    /**
+     * @param env       - the game environment objects.
+     * @param trackSets - true iff the sets themselves should be kept (and not only counted).
+     */
+    public SetIndex(Env env, boolean trackSets) {
+        this.env = env;
+        cards = new int[env.config.deckSize];
+        position = new int[env.config.deckSize];
+        Arrays.fill(position, -1);
+        sets = trackSets ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Adds a card to the collection, together with all the sets it completes.
+     *
+     * @param card - the card to add.
+     */
+    public synchronized void add(int card) {
+        if (position[card] >= 0) return;
+        setCount += env.util.findSetsWith(card, cards, size, Integer.MAX_VALUE, sets == null ? null : set -> sets.add(set.clone()));
+        position[card] = size;
+        cards[size++] = card;
+    }
+
+    /**
+     * Removes a card from the collection, together with all the sets it is part of.
+     *
+     * @param card - the card to remove.
+     */
+    public synchronized void remove(int card) {
+        int index = position[card];
+        if (index < 0) return;
+        cards[index] = cards[--size];
+        position[cards[index]] = index;
+        position[card] = -1;
+        setCount -= env.util.findSetsWith(card, cards, size, Integer.MAX_VALUE, null);
+        if (sets != null) sets.removeIf(set -> contains(set, card));
+    }
+
+    /**
+     * Removes all the cards from the collection.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; ++i)
+            position[cards[i]] = -1;
+        size = 0;
+        setCount = 0;
+        if (sets != null) sets.clear();
+    }
+
+    /**
+     * @return - true iff there is at least one legal set in the collection.
+     */
+    public boolean anySet() {
+        return setCount > 0;
+    }
+
+    /**
+     * @return - the number of legal sets in the collection.
+     */
+    public int countSets() {
+        return setCount;
+    }
+
+    /**
+     * @return - a copy of the list of the legal sets in the collection (each one sorted by card id).
+     */
+    public synchronized List<int[]> getSets() {
+        if (sets == null) throw new IllegalStateException("sets are not tracked by this index");
+        return new ArrayList<>(sets);
+    }
+
+    private static boolean contains(int[] set, int card) {
+        for (int c : set)
+            if (c == card) return true;
+        return false;
+    }
+}
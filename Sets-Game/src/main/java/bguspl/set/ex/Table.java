@@ -4,8 +4,8 @@ import bguspl.set.Env;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
 /**
@@ -30,17 +30,29 @@ public class Table {
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
-
     /**
-     * players X slots - an array that represent the players tokens on the table
+     * The legal sets among the cards currently on the table (updated on every card placement/removal).
      */
-    protected boolean[][] playersTokensSlots;
+    protected final SetIndex liveSets;
+
 
+    /**
+     * The players tokens on the table, as two bitmask views updated with CAS (so no locking is needed):
+     * playerSlots holds slotWords words per player with a bit per slot the player has a token on, and slotPlayers
+     * holds playerWords words per slot with a bit per player that has a token on it.
+     * A player's token count is the bit count of its slots.
+     */
+    private final AtomicLongArray playerSlots;
+    private final AtomicLongArray slotPlayers;
+    private final int slotWords;
+    private final int playerWords;
 
     /**
-     * an array that represent for each player a tokens counter
+     * Per slot: 1 iff tokens may be placed on it. The dealer closes a slot before it clears the slot's tokens to remove
+     * its card (the card itself goes only after the table delay), and placeToken checks it again after setting its
+     * bits, so a token is never left on a slot whose card is being removed.
      */
-    protected volatile int [] playerTokensCountrs;
+    private final AtomicIntegerArray openSlots;
 
 
 
@@ -48,6 +60,11 @@ public class Table {
 
     public volatile Boolean canplay = Boolean.FALSE;//notify the player when to wait and when he can start play
 
+    /**
+     * The version of the cards on the table: incremented whenever a card is placed or removed (by the dealer only).
+     */
+    private volatile int epoch;
+
 
 
 
@@ -68,8 +85,16 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        playersTokensSlots = new boolean[env.config.players][env.config.tableSize];
-        playerTokensCountrs = new int[env.config.players];
+        liveSets = new SetIndex(env, true);
+        for (Integer card : slotToCard)
+            if (card != null) liveSets.add(card);
+        slotWords = (env.config.tableSize + 63) >>> 6;
+        playerWords = (env.config.players + 63) >>> 6;
+        playerSlots = new AtomicLongArray(env.config.players * slotWords);
+        slotPlayers = new AtomicLongArray(env.config.tableSize * playerWords);
+        openSlots = new AtomicIntegerArray(env.config.tableSize);
+        for (int slot = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] != null) openSlots.set(slot, 1);
     }
 
     /**
@@ -86,8 +111,7 @@ public class Table {
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
+        liveSets.getSets().forEach(set -> {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
             List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
             int[][] features = env.util.cardsToFeatures(set);
@@ -95,6 +119,27 @@ public class Table {
         });
     }
 
+    /**
+     * @return - true iff there is at least one legal set on the table (O(1), read from the live set index).
+     */
+    public boolean anySet() {
+        return liveSets.anySet();
+    }
+
+    /**
+     * @return - the legal sets currently on the table (each one sorted by card id), without searching for them.
+     */
+    public List<int[]> getSets() {
+        return liveSets.getSets();
+    }
+
+    /**
+     * @return - the version of the cards on the table (incremented whenever a card is placed or removed).
+     */
+    public int epoch() {
+        return epoch;
+    }
+
     /**
      * Count the number of cards currently on the table.
      *
@@ -116,15 +161,26 @@ public class Table {
      * @post - the card placed is on the table, in the assigned slot.
      */
     public void placeCard(int card, int slot) {
-        try {
+        if (env.config.tableDelayMillis > 0) try {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
 
         cardToSlot[card] = slot;
         slotToCard[slot] = card;
+        liveSets.add(card);
+        epoch++;
 
         // TODO implement
         env.ui.placeCard(card,slot);
+        openSlots.set(slot, 1);
+    }
+
+    /**
+     * Stops tokens from being placed on a slot, until a card is placed on it again.
+     * @param slot - the slot to close.
+     */
+    public void closeSlot(int slot) {
+        openSlots.set(slot, 0);
     }
 
     /**
@@ -132,7 +188,8 @@ public class Table {
      * @param slot - the slot from which to remove the card.
      */
     public void removeCard(int slot) {
-        try {
+        closeSlot(slot);
+        if (env.config.tableDelayMillis > 0) try {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
 
@@ -140,6 +197,8 @@ public class Table {
         int card = slotToCard[slot];
         slotToCard[slot] = null;
         cardToSlot[card] = null;
+        liveSets.remove(card);
+        epoch++;
 
         env.ui.removeCard(slot); //UI update
 
@@ -152,18 +211,26 @@ public class Table {
      */
     //should be unavailbe when dealer shuffle or put cards
     public void placeToken(int player, int slot) {
-        // TODO implement
-
-        // need to check if using semaphore is needed
-        if (slotToCard[slot] != null)
-        {
-            playersTokensSlots[player][slot] = true;
-            playerTokensCountrs[player]++;
-
+        if (openSlots.get(slot) == 1 && setBit(playerSlots, player * slotWords + (slot >>> 6), slot)) {
+            setBit(slotPlayers, slot * playerWords + (player >>> 6), player);
+            if (openSlots.get(slot) == 0) { // the slot was closed meanwhile (its tokens may be cleared already)
+                clearBits(player, slot);
+                return;
+            }
             env.ui.placeToken(player, slot); //UI update
+            if (openSlots.get(slot) == 0) { // closed while the token was shown: the dealer may have missed it
+                clearBits(player, slot);
+                env.ui.removeToken(player, slot);
+            }
         }
     }
 
+    private boolean clearBits(int player, int slot) {
+        if (!clearBit(playerSlots, player * slotWords + (slot >>> 6), slot)) return false;
+        clearBit(slotPlayers, slot * playerWords + (player >>> 6), player);
+        return true;
+    }
+
     /**
      * Removes a token of a player from a grid slot.
      * @param player - the player the token belongs to.
@@ -171,55 +238,120 @@ public class Table {
      * @return       - true iff a token was successfully removed.
      */
     public boolean removeToken(int player, int slot) {
-        // TODO implement
-        if (playersTokensSlots[player][slot] == true)
-        {
-            playersTokensSlots[player][slot] = false;
-            playerTokensCountrs[player]--;
-
+        if (clearBits(player, slot)) {
             env.ui.removeToken(player, slot); //UI update
             return true;
         }
         return false;
+    }
 
+    /**
+     * @param player - the player id.
+     * @param slot   - the slot.
+     * @return - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return (playerSlots.get(player * slotWords + (slot >>> 6)) & 1L << slot) != 0;
     }
 
+    /**
+     * @param player - the player id.
+     * @return - the number of tokens the player has on the table.
+     */
+    public int countTokens(int player) {
+        int tokens = 0;
+        for (int word = 0; word < slotWords; word++)
+            tokens += Long.bitCount(playerSlots.get(player * slotWords + word));
+        return tokens;
+    }
 
     // added by us!
 
-    public synchronized int[] playerSetsCards(int id) {
-        if (id < 0 || id >= playersTokensSlots.length) {
+    /**
+     * @param id - the player id.
+     * @return - the cards the player has tokens on (only those actually on the table).
+     */
+    public int[] playerSetsCards(int id) {
+        int[] playerSetCards = new int[env.config.featureSize];
+        int index = playerSetsCards(id, playerSetCards);
+        return index == playerSetCards.length ? playerSetCards : Arrays.copyOf(playerSetCards, index);
+    }
+
+    /**
+     * Writes the cards the player has tokens on into a buffer (with no allocation).
+     * @param id    - the player id.
+     * @param cards - the buffer (the cards beyond its length are left out).
+     * @return - the number of cards written (only those actually on the table).
+     */
+    public int playerSetsCards(int id, int[] cards) {
+        if (id < 0 || id >= env.config.players) {
             throw new IllegalArgumentException("Invalid player ID");
         }
 
-        int[] playerSetCards = new int[env.config.featureSize];
-
         // Fill the array with the tokens cards owned by the player
         int index = 0;
-        for (int slot = 0; slot < env.config.tableSize ; slot++) {
-            if (playersTokensSlots[id][slot]  && slotToCard[slot] !=null) {
-                playerSetCards[index] = slotToCard[slot] ;
-                index++;
+        for (int word = 0; word < slotWords; word++) {
+            long slots = playerSlots.get(id * slotWords + word);
+            for (; slots != 0 && index < cards.length; slots &= slots - 1) {
+                Integer card = slotToCard[word << 6 | Long.numberOfTrailingZeros(slots)];
+                if (card != null)
+                    cards[index++] = card;
             }
         }
 
-        return playerSetCards;
+        // a token may be left on a slot whose card was just removed - only the cards actually on the table count
+        return index;
     }
 
-    public void removeTokens (int slot)//remove all tokens
-    {
-        for (int player = 0; player < env.config.players; player++) {
-            if(playersTokensSlots[player][slot]==true)
-            {
-                playersTokensSlots[player][slot] = false;
-                playerTokensCountrs[player] = playerTokensCountrs[player] - 1;
+    /**
+     * Removes the tokens of all the players from a slot.
+     * @param slot - the slot from which to remove the tokens.
+     */
+    public void removeTokens(int slot) {
+        for (int word = 0; word < playerWords; word++) {
+            long players = slotPlayers.getAndSet(slot * playerWords + word, 0);
+            for (; players != 0; players &= players - 1) {
+                int player = word << 6 | Long.numberOfTrailingZeros(players);
+                clearBit(playerSlots, player * slotWords + (slot >>> 6), slot);
             }
-            env.ui.removeTokens(slot);
         }
+        env.ui.removeTokens(slot); //UI update
     }
 
+    /**
+     * Removes all the tokens from the table.
+     */
+    public void removeAllTokens() {
+        for (int i = 0; i < playerSlots.length(); i++)
+            playerSlots.set(i, 0);
+        for (int i = 0; i < slotPlayers.length(); i++)
+            slotPlayers.set(i, 0);
+        env.ui.removeTokens(); //UI update
+    }
 
+    /**
+     * Atomically sets a bit (index modulo 64) in a word.
+     * @return - true iff the bit was not set before.
+     */
+    private static boolean setBit(AtomicLongArray words, int word, int index) {
+        long bit = 1L << index, old;
+        do {
+            old = words.get(word);
+            if ((old & bit) != 0) return false;
+        } while (!words.compareAndSet(word, old, old | bit));
+        return true;
+    }
 
-
+    /**
+     * Atomically clears a bit (index modulo 64) in a word.
+     * @return - true iff the bit was set before.
+     */
+    private static boolean clearBit(AtomicLongArray words, int word, int index) {
+        long bit = 1L << index, old;
+        do {
+            old = words.get(word);
+            if ((old & bit) == 0) return false;
+        } while (!words.compareAndSet(word, old, old & ~bit));
+        return true;
+    }
 }
-
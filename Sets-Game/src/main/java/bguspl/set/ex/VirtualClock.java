@@ -0,0 +1,94 @@
+package bguspl.set.ex;
+
+import bguspl.set.Clock;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A clock for simulated games, whose time only advances when the dealer waits for it.
+ * All the tasks (the players' runs, the key presses of the AI players and the freeze countdowns) are events in a single
+ * queue ordered by time, and they run on the dealer thread while it waits: await runs the next event due before the
+ * deadline (advancing the time to it), or advances the time to the deadline. A simulated game is therefore single
+ * threaded, and takes as long as computing it takes.
+ *
+ * @inv now only increases
+ */
+public class VirtualClock implements Clock, Scheduler, Executor {
+
+    /**
+     * A task due at some time (tasks due at the same time run in the order they were scheduled).
+     */
+    private static final class Event implements Comparable<Event>, Task {
+
+        private final long time;
+        private final long sequence;
+        private final Runnable task;
+        private boolean done; // run or cancelled
+
+        private Event(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public boolean cancel() {
+            if (done) return false;
+            done = true;
+            return true;
+        }
+    }
+
+    /**
+     * The events not run yet (only accessed by the dealer thread, like the rest of the clock).
+     */
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+    private long now;
+    private long eventsRun;
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    @Override
+    public void await(Object monitor, long deadline) {
+        while (!events.isEmpty() && events.peek().done)
+            events.poll(); // cancelled
+        Event next = events.peek();
+        if (next != null && next.time <= deadline) {
+            events.poll();
+            now = Math.max(now, next.time);
+            eventsRun++;
+            next.done = true;
+            next.task.run();
+        } else now = Math.max(now, deadline);
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delayMillis) {
+        Event event = new Event(now + Math.max(0, delayMillis), sequence++, task);
+        events.add(event);
+        return event;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        schedule(task, 0);
+    }
+
+    /**
+     * @return - the number of events run so far.
+     */
+    public long eventsRun() {
+        return eventsRun;
+    }
+}
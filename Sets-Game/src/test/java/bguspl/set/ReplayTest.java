@@ -0,0 +1,159 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records a random game with the ReplayRecorder, plays it back from several points, and checks that the replay ends
+ * in the state of the game (whichever keyframe it starts from), even when the file is damaged.
+ */
+class ReplayTest {
+
+    private static final int EVENTS = 5_000;
+
+    private static Logger logger() {
+        Logger logger = Logger.getLogger("ReplayTest");
+        logger.setUseParentHandlers(false);
+        return logger;
+    }
+
+    private static Config config() {
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "4");
+        return new Config(logger(), properties);
+    }
+
+    private static UiEvent randomEvent(Config config, Random random) {
+        int slot = random.nextInt(config.tableSize), player = random.nextInt(config.players);
+        switch (random.nextInt(12)) {
+            case 0: return UiEvent.placeCard(random.nextInt(config.deckSize), slot);
+            case 1: return UiEvent.removeCard(slot);
+            case 2: case 3: return UiEvent.placeToken(player, slot);
+            case 4: return UiEvent.removeToken(player, slot);
+            case 5: return UiEvent.removeTokens(slot);
+            case 6: return random.nextInt(20) == 0 ? UiEvent.REMOVE_ALL_TOKENS : UiEvent.removeToken(player, slot);
+            case 7: return UiEvent.score(player, random.nextInt(10));
+            case 8: return UiEvent.freeze(player, random.nextInt(3_000));
+            case 9: return UiEvent.claimChecked(player, random.nextInt(3));
+            case 10: return UiEvent.elapsed(random.nextInt(60_000));
+            default: return UiEvent.countdown(random.nextInt(60_000), random.nextBoolean());
+        }
+    }
+
+    /**
+     * Records a random game (spread over some milliseconds, so the keyframes have different times).
+     *
+     * @return - the state of the game at the end.
+     */
+    private static GameState record(Path file, Config config, long seed) throws IOException, InterruptedException {
+        ReplayRecorder recorder = new ReplayRecorder(logger(), config, file);
+        GameState truth = new GameState(config);
+        Random random = new Random(seed);
+        for (int i = 0; i < EVENTS; i++) {
+            UiEvent event = i == EVENTS - 1 ? UiEvent.announceWinner(new int[]{0, 2}) : randomEvent(config, random);
+            recorder.accept(event);
+            truth.apply(event);
+            if (i % 50 == 0) Thread.sleep(1);
+        }
+        recorder.accept(UiEvent.DISPOSE);
+        return truth;
+    }
+
+    /**
+     * A replayed game: the state the replay brings a user interface to.
+     */
+    private static final class Played {
+        private final GameState state;
+        private final long applied;
+
+        private Played(GameState state, long applied) {
+            this.state = state;
+            this.applied = applied;
+        }
+    }
+
+    private static Played play(Replay replay, Config config, long micros) {
+        UiEventBus bus = new UiEventBus(logger(), config);
+        GameState state = new GameState(config);
+        bus.subscribe("replayed", state::apply, 16, UiEventBus.Backpressure.BLOCK);
+        replay.seek(micros);
+        long applied = replay.play(bus, 0);
+        bus.dispose();
+        return new Played(state, applied);
+    }
+
+    private static void assertSameState(GameState expected, GameState actual, String where) {
+        List<UiEvent> expectedEvents = new ArrayList<>(), actualEvents = new ArrayList<>();
+        expected.forEachEvent(expectedEvents::add);
+        actual.forEachEvent(actualEvents::add);
+        assertEquals(expectedEvents.size(), actualEvents.size(), where);
+        for (int i = 0; i < expectedEvents.size(); i++) {
+            UiEvent a = expectedEvents.get(i), b = actualEvents.get(i);
+            assertEquals(a.type, b.type, where + " event " + i);
+            assertEquals(a.player, b.player, where + " event " + i);
+            assertEquals(a.slot, b.slot, where + " event " + i);
+            assertEquals(a.value, b.value, where + " event " + i);
+            assertEquals(a.warn, b.warn, where + " event " + i);
+            assertArrayEquals(a.players, b.players, where + " event " + i);
+        }
+    }
+
+    @Test
+    void seekingAnywhereEndsInTheStateOfTheGame(@TempDir Path dir) throws Exception {
+        Config config = config();
+        Path file = dir.resolve("game.setr");
+        GameState truth = record(file, config, 1);
+        Replay replay = new Replay(file);
+        assertEquals(config.players, replay.players);
+        assertEquals(EVENTS + 1, replay.events()); // and DISPOSE
+        assertTrue(replay.keyframes() > 1);
+
+        Played whole = play(replay, config, 0);
+        assertSameState(truth, whole.state, "from the start");
+        long duration = replay.duration();
+        for (long micros : new long[]{duration / 4, duration / 2, 3 * duration / 4, duration, duration + 1_000_000}) {
+            Played part = play(replay, config, micros);
+            assertSameState(truth, part.state, "from " + micros + "us of " + duration + "us");
+            // a keyframe stood in for the events before it
+            if (micros >= duration / 2) assertTrue(part.applied < whole.applied, "from " + micros + "us");
+        }
+    }
+
+    @Test
+    void damagedFramesEndThePlay(@TempDir Path dir) throws Exception {
+        Config config = config();
+        Path file = dir.resolve("game.setr");
+        GameState truth = record(file, config, 2);
+
+        // a whole frame announcing a billion winners, then a frame cut short
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            out.write(ReplayFormat.EVENT);
+            ReplayFormat.writeVarLong(out, 7);
+            ReplayFormat.writeVarLong(out, 0);
+            out.write(UiEvent.Type.ANNOUNCE_WINNER.ordinal());
+            ReplayFormat.writeVarLong(out, 1_000_000_000);
+            out.write(ReplayFormat.EVENT);
+            ReplayFormat.writeVarLong(out, 100);
+            out.write(new byte[]{0, 1, 2});
+        }
+        Replay replay = new Replay(file);
+        assertEquals(EVENTS + 2, replay.events()); // the damaged frame looks whole from outside
+
+        assertSameState(truth, play(replay, config, 0).state, "from the start");
+        assertSameState(truth, play(replay, config, replay.duration()).state, "from the end");
+    }
+}
@@ -0,0 +1,119 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a subscriber that loses events to its backpressure policy is resynced, and ends with the state of the
+ * game all the same.
+ */
+class UiEventBusTest {
+
+    private static Config config() {
+        Logger logger = Logger.getLogger("UiEventBusTest");
+        logger.setUseParentHandlers(false);
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "4");
+        return new Config(logger, properties);
+    }
+
+    /**
+     * A subscriber that keeps the state its events show, slowly.
+     */
+    private static class SlowSubscriber implements Consumer<UiEvent> {
+
+        private final GameState state;
+        private final List<UiEvent> events = new ArrayList<>();
+
+        private SlowSubscriber(Config config) {
+            state = new GameState(config);
+        }
+
+        @Override
+        public void accept(UiEvent event) {
+            state.apply(event);
+            events.add(event);
+            try {
+                Thread.sleep(0, 100_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void publishRandomGame(UiEventBus bus, Config config, Random random, int events) {
+        for (int i = 0; i < events; i++) {
+            int slot = random.nextInt(config.tableSize), player = random.nextInt(config.players);
+            switch (random.nextInt(6)) {
+                case 0: bus.placeCard(random.nextInt(config.deckSize), slot); break;
+                case 1: bus.removeCard(slot); break;
+                case 2: bus.placeToken(player, slot); break;
+                case 3: bus.removeToken(player, slot); break;
+                case 4: bus.setScore(player, random.nextInt(10)); break;
+                default: bus.setCountdown(random.nextInt(60_000), false); break;
+            }
+        }
+    }
+
+    private static List<UiEvent> events(GameState state) {
+        List<UiEvent> events = new ArrayList<>();
+        state.forEachEvent(events::add);
+        return events;
+    }
+
+    private static void assertSameState(GameState expected, GameState actual, String subscriber) {
+        List<UiEvent> expectedEvents = events(expected), actualEvents = events(actual);
+        assertEquals(expectedEvents.size(), actualEvents.size(), subscriber);
+        for (int i = 0; i < expectedEvents.size(); i++) {
+            UiEvent a = expectedEvents.get(i), b = actualEvents.get(i);
+            assertEquals(a.type, b.type, subscriber + " event " + i);
+            assertEquals(a.player, b.player, subscriber + " event " + i);
+            assertEquals(a.slot, b.slot, subscriber + " event " + i);
+            assertEquals(a.value, b.value, subscriber + " event " + i);
+        }
+    }
+
+    @Test
+    void lossySubscribersAreResynced() {
+        Config config = config();
+        UiEventBus bus = new UiEventBus(Logger.getLogger("UiEventBusTest"), config);
+        GameState truth = new GameState(config);
+        bus.subscribe("truth", truth::apply, 16, UiEventBus.Backpressure.BLOCK);
+        SlowSubscriber newest = new SlowSubscriber(config), oldest = new SlowSubscriber(config);
+        bus.subscribe("newest", newest, 16, UiEventBus.Backpressure.DROP_NEWEST);
+        bus.subscribe("oldest", oldest, 16, UiEventBus.Backpressure.DROP_OLDEST);
+
+        publishRandomGame(bus, config, new Random(42), 20_000);
+        bus.dispose();
+
+        // they lost events (they were too slow to get them all), but not the state
+        assertTrue(newest.events.size() < 20_000);
+        assertTrue(oldest.events.size() < 20_000);
+        assertSameState(truth, newest.state, "newest");
+        assertSameState(truth, oldest.state, "oldest");
+        assertSame(UiEvent.DISPOSE, newest.events.get(newest.events.size() - 1));
+        assertSame(UiEvent.DISPOSE, oldest.events.get(oldest.events.size() - 1));
+    }
+
+    @Test
+    void blockingSubscribersGetEveryEvent() {
+        Config config = config();
+        UiEventBus bus = new UiEventBus(Logger.getLogger("UiEventBusTest"), config);
+        SlowSubscriber subscriber = new SlowSubscriber(config);
+        bus.subscribe("block", subscriber, 16, UiEventBus.Backpressure.BLOCK);
+
+        publishRandomGame(bus, config, new Random(7), 2_000);
+        bus.dispose();
+
+        assertEquals(2_001, subscriber.events.size()); // and DISPOSE
+    }
+}
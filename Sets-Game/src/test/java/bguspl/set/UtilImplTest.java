@@ -0,0 +1,234 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the set engine (the backtracking and pair completion searches, and the packed testSet) against a brute force
+ * reference, on random tables of decks of several shapes.
+ */
+class UtilImplTest {
+
+    private static final int TABLES = 200;
+    private static final int MAX_TABLE_SIZE = 18;
+
+    /**
+     * The deck shapes checked: {featureSize, featureCount}.
+     */
+    private static final int[][] SHAPES = {{3, 4}, {3, 3}, {2, 3}, {4, 3}, {5, 2}, {3, 5}, {4, 2}};
+
+    private static UtilImpl util(int featureSize, int featureCount, int searchThreads) {
+        Logger logger = Logger.getLogger("UtilImplTest");
+        logger.setUseParentHandlers(false);
+        Properties properties = new Properties();
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "1");
+        properties.setProperty("SetSearchThreads", Integer.toString(searchThreads));
+        properties.setProperty("ParallelSearchThreshold", "1");
+        return new UtilImpl(new Config(logger, properties));
+    }
+
+    /**
+     * A legal set by the definition: for every feature, the values of the cards are all the same or all different.
+     */
+    private static boolean isSet(int[] cards, int featureSize, int featureCount) {
+        for (int i = 0, weight = 1; i < featureCount; i++, weight *= featureSize) {
+            boolean[] seen = new boolean[featureSize];
+            int distinct = 0;
+            for (int card : cards) {
+                int value = card / weight % featureSize;
+                if (!seen[value]) {
+                    seen[value] = true;
+                    distinct++;
+                }
+            }
+            if (distinct != 1 && distinct != cards.length) return false;
+        }
+        return true;
+    }
+
+    /**
+     * All the sets of featureSize of the cards (and the given card, if not negative), as sorted lists of card ids.
+     */
+    private static List<List<Integer>> bruteForceSets(int with, int[] cards, int len, int featureSize,
+                                                      int featureCount) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < len; i++)
+            if (cards[i] != with) candidates.add(cards[i]);
+        List<List<Integer>> sets = new ArrayList<>();
+        choose(candidates, 0, new ArrayList<>(with >= 0 ? Collections.singletonList(with) : Collections.emptyList()),
+                featureSize, featureCount, sets);
+        return sets;
+    }
+
+    private static void choose(List<Integer> candidates, int from, List<Integer> chosen, int featureSize,
+                               int featureCount, List<List<Integer>> sets) {
+        if (chosen.size() == featureSize) {
+            if (isSet(chosen.stream().mapToInt(Integer::intValue).toArray(), featureSize, featureCount)) {
+                List<Integer> set = new ArrayList<>(chosen);
+                Collections.sort(set);
+                sets.add(set);
+            }
+            return;
+        }
+        for (int i = from; i < candidates.size(); i++) {
+            chosen.add(candidates.get(i));
+            choose(candidates, i + 1, chosen, featureSize, featureCount, sets);
+            chosen.remove(chosen.size() - 1);
+        }
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> sets) {
+        List<List<Integer>> copy = new ArrayList<>(sets);
+        copy.sort((a, b) -> {
+            for (int i = 0; i < a.size(); i++)
+                if (!a.get(i).equals(b.get(i))) return a.get(i) - b.get(i);
+            return 0;
+        });
+        return copy;
+    }
+
+    private static List<List<Integer>> toLists(int[] sets, int found, int featureSize) {
+        List<List<Integer>> lists = new ArrayList<>();
+        for (int i = 0; i < found; i++) {
+            List<Integer> set = new ArrayList<>();
+            for (int j = 0; j < featureSize; j++)
+                set.add(sets[i * featureSize + j]);
+            lists.add(set);
+        }
+        return lists;
+    }
+
+    /**
+     * A table of random distinct cards, with a random tail after len (which the searches must ignore).
+     */
+    private static int[] randomTable(Random random, int deckSize, int len) {
+        List<Integer> deck = new ArrayList<>();
+        for (int card = 0; card < deckSize; card++)
+            deck.add(card);
+        Collections.shuffle(deck, random);
+        int[] cards = new int[len + 3];
+        for (int i = 0; i < cards.length; i++)
+            cards[i] = deck.get(i % deckSize);
+        return cards;
+    }
+
+    private static void checkTable(UtilImpl util, int[] cards, int len, int featureSize, int featureCount,
+                                   Random random) {
+        String table = Arrays.toString(Arrays.copyOf(cards, len)) + " (" + featureSize + "^" + featureCount + ")";
+        List<List<Integer>> expected = bruteForceSets(-1, cards, len, featureSize, featureCount);
+
+        assertEquals(expected.size(), util.countSets(cards, len), "countSets " + table);
+        assertEquals(!expected.isEmpty(), util.anySet(cards, len), "anySet " + table);
+
+        int[] buffer = new int[(expected.size() + 1) * featureSize];
+        int found = util.findSets(cards, len, Integer.MAX_VALUE, buffer);
+        assertEquals(sorted(expected), sorted(toLists(buffer, found, featureSize)), "findSets " + table);
+
+        // a limited count gets that many distinct legal sets
+        int count = random.nextInt(expected.size() + 2);
+        found = util.findSets(cards, len, count, buffer);
+        assertEquals(Math.min(count, expected.size()), found, "findSets count " + count + " " + table);
+        List<List<Integer>> some = toLists(buffer, found, featureSize);
+        assertTrue(expected.containsAll(some), "findSets count " + count + " " + table);
+        assertEquals(some.size(), some.stream().distinct().count(), "findSets count " + count + " " + table);
+
+        List<List<Integer>> visited = new ArrayList<>();
+        util.findSets(cards, len, Integer.MAX_VALUE, set -> {
+            List<Integer> list = new ArrayList<>();
+            for (int card : set) list.add(card);
+            visited.add(list);
+            return true;
+        });
+        assertEquals(sorted(expected), sorted(visited), "findSets visitor " + table);
+
+        // the sets with a card of the table, and with a card that is not on it
+        for (int with : new int[]{len > 0 ? cards[random.nextInt(len)] : 0, cards[len]}) {
+            List<List<Integer>> expectedWith = bruteForceSets(with, cards, len, featureSize, featureCount);
+            List<List<Integer>> visitedWith = new ArrayList<>();
+            int foundWith = util.findSetsWith(with, cards, len, Integer.MAX_VALUE, set -> {
+                List<Integer> list = new ArrayList<>();
+                for (int card : set) list.add(card);
+                visitedWith.add(list);
+                return true;
+            });
+            assertEquals(expectedWith.size(), foundWith, "findSetsWith " + with + " " + table);
+            assertEquals(sorted(expectedWith), sorted(visitedWith), "findSetsWith " + with + " " + table);
+        }
+    }
+
+    private static void checkShapes(int searchThreads) {
+        Random random = new Random(42);
+        for (int[] shape : SHAPES) {
+            int featureSize = shape[0], featureCount = shape[1];
+            int deckSize = (int) Math.pow(featureSize, featureCount);
+            UtilImpl util = util(featureSize, featureCount, searchThreads);
+            for (int len = 0; len <= 1; len++) // the empty and the 1-card tables
+                checkTable(util, randomTable(random, deckSize, len), len, featureSize, featureCount, random);
+            for (int table = 0; table < TABLES; table++) {
+                int len = random.nextInt(Math.min(deckSize - 3, MAX_TABLE_SIZE) + 1);
+                checkTable(util, randomTable(random, deckSize, len), len, featureSize, featureCount, random);
+            }
+        }
+    }
+
+    @Test
+    void searchesMatchBruteForce() {
+        checkShapes(1);
+    }
+
+    @Test
+    void parallelSearchesMatchBruteForce() {
+        checkShapes(3);
+    }
+
+    @Test
+    void testSetMatchesDefinition() {
+        Random random = new Random(7);
+        for (int[] shape : SHAPES) {
+            int featureSize = shape[0], featureCount = shape[1];
+            int deckSize = (int) Math.pow(featureSize, featureCount);
+            UtilImpl util = util(featureSize, featureCount, 1);
+            for (int i = 0; i < 5000; i++) {
+                int[] cards = Arrays.copyOf(randomTable(random, deckSize, featureSize), featureSize);
+                // half of the tuples are made sets, so both answers are well covered
+                if (random.nextBoolean()) {
+                    Arrays.fill(cards, 0);
+                    for (int feature = 0, weight = 1; feature < featureCount; feature++, weight *= featureSize) {
+                        List<Integer> values = new ArrayList<>();
+                        for (int value = 0; value < featureSize; value++)
+                            values.add(value);
+                        Collections.shuffle(values, random);
+                        boolean same = random.nextBoolean();
+                        for (int j = 0; j < featureSize; j++)
+                            cards[j] += (same ? values.get(0) : values.get(j)) * weight;
+                    }
+                    if (Arrays.stream(cards).distinct().count() < featureSize)
+                        continue; // all the features the same: not distinct cards
+                }
+                assertEquals(isSet(cards, featureSize, featureCount), util.testSet(cards),
+                        "testSet " + Arrays.toString(cards) + " (" + featureSize + "^" + featureCount + ")");
+            }
+        }
+    }
+
+    @Test
+    void findSetsWithNoRoomFindsNothing() {
+        UtilImpl util = util(3, 4, 1);
+        int[] cards = {0, 1, 2, 3, 4, 5};
+        assertEquals(0, util.findSets(cards, cards.length, 0, new int[3]));
+        assertEquals(0, util.findSets(cards, cards.length, 5, new int[2]));
+        assertEquals(1, util.findSets(cards, cards.length, 5, new int[3]));
+    }
+}
@@ -0,0 +1,100 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the timer runs its tasks in the order they are due and not before, and that cancelled tasks and the
+ * tasks of a stopped timer do not run. The wheel is small (8 ticks of 5 ms), so the longer delays take several turns.
+ */
+class HashedWheelTimerTest {
+
+    private static final long TICK_MILLIS = 5;
+    private static final int WHEEL_SIZE = 8;
+
+    private HashedWheelTimer timer;
+    private Thread timerThread;
+
+    @BeforeEach
+    void setUp() {
+        Logger logger = Logger.getLogger("HashedWheelTimerTest");
+        logger.setUseParentHandlers(false);
+        timer = new HashedWheelTimer(logger, TICK_MILLIS, WHEEL_SIZE);
+        timerThread = new Thread(timer, "timer");
+        timerThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        timer.stop();
+        timerThread.join();
+    }
+
+    @Test
+    void runsTasksInTheOrderTheyAreDue() throws InterruptedException {
+        long[] delays = {90, 10, 50, 0, 130, 30, 70, 110};
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        List<Long> early = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch ran = new CountDownLatch(delays.length);
+        long start = System.currentTimeMillis();
+        for (long delay : delays)
+            timer.schedule(() -> {
+                if (System.currentTimeMillis() - start < delay) early.add(delay);
+                order.add(delay);
+                ran.countDown();
+            }, delay);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L, 10L, 30L, 50L, 70L, 90L, 110L, 130L), order);
+        assertEquals(Collections.emptyList(), early, "tasks that ran early");
+    }
+
+    @Test
+    void cancelledTasksDoNotRun() throws InterruptedException {
+        AtomicBoolean near = new AtomicBoolean(), far = new AtomicBoolean();
+        CountDownLatch last = new CountDownLatch(1);
+        Scheduler.Task nearTask = timer.schedule(() -> near.set(true), 20);
+        Scheduler.Task farTask = timer.schedule(() -> far.set(true), 100); // beyond a turn of the wheel
+        Scheduler.Task lastTask = timer.schedule(last::countDown, 150);
+
+        assertTrue(nearTask.cancel());
+        assertTrue(farTask.cancel());
+        assertFalse(farTask.cancel()); // already cancelled
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        assertFalse(near.get());
+        assertFalse(far.get());
+        assertFalse(lastTask.cancel()); // already ran
+    }
+
+    @Test
+    void stoppedTimerDropsItsTasks() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        timer.schedule(() -> ran.set(true), 50);
+        timer.stop();
+        timerThread.join(1000);
+        assertFalse(timerThread.isAlive());
+
+        Thread.sleep(100);
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void idleTimerStops() throws InterruptedException {
+        Thread.sleep(20); // nothing scheduled: the timer thread waits
+        timer.stop();
+        timerThread.join(1000);
+        assertFalse(timerThread.isAlive());
+    }
+}
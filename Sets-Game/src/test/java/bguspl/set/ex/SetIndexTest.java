@@ -0,0 +1,115 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the incremental set index against a full search of the same cards, along random adds and removes.
+ */
+class SetIndexTest {
+
+    private static Env env(int featureSize, int featureCount) {
+        Logger logger = Logger.getLogger("SetIndexTest");
+        logger.setUseParentHandlers(false);
+        Properties properties = new Properties();
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "1");
+        Config config = new Config(logger, properties);
+        return new Env(logger, config, null, new UtilImpl(config));
+    }
+
+    private static List<int[]> sorted(List<int[]> sets) {
+        List<int[]> copy = new ArrayList<>(sets);
+        copy.sort((a, b) -> {
+            for (int i = 0; i < a.length; i++)
+                if (a[i] != b[i]) return a[i] - b[i];
+            return 0;
+        });
+        return copy;
+    }
+
+    private static void check(Env env, SetIndex index, List<Integer> cards, String step) {
+        int[] array = cards.stream().mapToInt(Integer::intValue).toArray();
+        int expected = env.util.countSets(array, array.length);
+        assertEquals(expected, index.countSets(), "countSets " + step);
+        assertEquals(expected > 0, index.anySet(), "anySet " + step);
+
+        List<int[]> found = new ArrayList<>();
+        env.util.findSets(array, array.length, Integer.MAX_VALUE, set -> {
+            int[] copy = set.clone();
+            Arrays.sort(copy);
+            found.add(copy);
+            return true;
+        });
+        List<int[]> expectedSets = sorted(found), actualSets = sorted(index.getSets());
+        assertEquals(expectedSets.size(), actualSets.size(), "getSets " + step);
+        for (int i = 0; i < expectedSets.size(); i++)
+            assertArrayEquals(expectedSets.get(i), actualSets.get(i), "getSets " + step);
+    }
+
+    private static void randomWalk(int featureSize, int featureCount, long seed) {
+        Env env = env(featureSize, featureCount);
+        SetIndex index = new SetIndex(env, true);
+        Random random = new Random(seed);
+        List<Integer> cards = new ArrayList<>();
+        for (int step = 0; step < 2000; step++) {
+            int card = random.nextInt(env.config.deckSize);
+            // grow up to a table and a half, then hover around it
+            boolean add = cards.size() < 6 || (cards.size() < 18 && random.nextBoolean());
+            if (add) {
+                index.add(card);
+                if (!cards.contains(card)) cards.add(card);
+            } else if (random.nextInt(10) == 0) {
+                index.remove(card); // most likely not in the collection
+                cards.remove(Integer.valueOf(card));
+            } else {
+                Integer removed = cards.remove(random.nextInt(cards.size()));
+                index.remove(removed);
+            }
+            if (random.nextInt(200) == 0) {
+                index.clear();
+                cards.clear();
+            }
+            check(env, index, cards, "step " + step + " " + featureSize + "^" + featureCount);
+        }
+    }
+
+    @Test
+    void incrementalIndexMatchesFullSearch() {
+        randomWalk(3, 4, 1);
+        randomWalk(3, 3, 2);
+        randomWalk(4, 3, 3);
+        randomWalk(2, 4, 4);
+    }
+
+    @Test
+    void countingIndexMatchesFullSearch() {
+        Env env = env(3, 4);
+        SetIndex index = new SetIndex(env, false);
+        Random random = new Random(5);
+        List<Integer> cards = new ArrayList<>();
+        for (int step = 0; step < 2000; step++) {
+            if (cards.size() < 15 && (cards.size() < 3 || random.nextBoolean())) {
+                int card = random.nextInt(env.config.deckSize);
+                index.add(card);
+                if (!cards.contains(card)) cards.add(card);
+            } else index.remove(cards.remove(random.nextInt(cards.size())));
+            int[] array = cards.stream().mapToInt(Integer::intValue).toArray();
+            assertEquals(env.util.countSets(array, array.length), index.countSets(), "step " + step);
+        }
+        assertThrows(IllegalStateException.class, index::getSets);
+    }
+}
@@ -0,0 +1,193 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UserInterface;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Races players placing and removing tokens against the dealer closing slots and removing their cards, and checks that
+ * no token survives on a slot whose card was removed (in the table and in the user interface).
+ */
+class TableTest {
+
+    private static final int ROUNDS = 300;
+    private static final int THREADS = 4;
+
+    /**
+     * A user interface that keeps the tokens it shows.
+     */
+    private static class TokenView implements UserInterface {
+
+        private final boolean[][] tokens;
+
+        private TokenView(Config config) {
+            tokens = new boolean[config.players][config.tableSize];
+        }
+
+        @Override
+        public synchronized void placeToken(int player, int slot) {
+            tokens[player][slot] = true;
+        }
+
+        @Override
+        public synchronized void removeToken(int player, int slot) {
+            tokens[player][slot] = false;
+        }
+
+        @Override
+        public synchronized void removeTokens(int slot) {
+            for (boolean[] playerTokens : tokens)
+                playerTokens[slot] = false;
+        }
+
+        @Override
+        public synchronized void removeTokens() {
+            for (boolean[] playerTokens : tokens)
+                Arrays.fill(playerTokens, false);
+        }
+
+        private synchronized boolean shows(int player, int slot) {
+            return tokens[player][slot];
+        }
+
+        @Override
+        public void placeCard(int card, int slot) {}
+
+        @Override
+        public void removeCard(int slot) {}
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {}
+
+        @Override
+        public void setElapsed(long millies) {}
+
+        @Override
+        public void setFreeze(int player, long millies) {}
+
+        @Override
+        public void setScore(int player, int score) {}
+
+        @Override
+        public void announceWinner(int[] players) {}
+
+        @Override
+        public void dispose() {}
+    }
+
+    private static Config config(int players) {
+        Logger logger = Logger.getLogger("TableTest");
+        logger.setUseParentHandlers(false);
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("TableDelaySeconds", "0");
+        return new Config(logger, properties);
+    }
+
+    private static void race(int players, long seed) throws Exception {
+        Config config = config(players);
+        TokenView ui = new TokenView(config);
+        Env env = new Env(Logger.getLogger("TableTest"), config, ui, new UtilImpl(config));
+        Table table = new Table(env);
+        Random random = new Random(seed);
+        int nextCard = 0;
+
+        // the players press at random (every player is played by one thread, as by its own player thread in the game),
+        // between the two barriers of every round
+        CyclicBarrier barrier = new CyclicBarrier(THREADS + 1);
+        AtomicBoolean pressing = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom local = ThreadLocalRandom.current();
+                try {
+                    while (true) {
+                        barrier.await();
+                        if (done.get()) return;
+                        while (pressing.get()) {
+                            int player = first + THREADS * local.nextInt((config.players - first + THREADS - 1) / THREADS);
+                            int slot = local.nextInt(config.tableSize);
+                            if (!table.removeToken(player, slot)) table.placeToken(player, slot);
+                        }
+                        barrier.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException ignored) {}
+            });
+            threads[t].setDaemon(true);
+            threads[t].start();
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int slot = 0; slot < config.tableSize; slot++)
+                if (table.slotToCard[slot] == null) {
+                    while (table.cardToSlot[nextCard] != null)
+                        nextCard = (nextCard + 1) % config.deckSize;
+                    table.placeCard(nextCard, slot);
+                }
+
+            // the dealer removes some of the cards the way it collects a set, while the players press
+            pressing.set(true);
+            barrier.await();
+            long spin = random.nextInt(20_000), until = System.nanoTime() + spin;
+            while (System.nanoTime() < until) Thread.yield();
+            boolean[] removed = new boolean[config.tableSize];
+            for (int i = 0; i < config.featureSize; i++) {
+                int slot = random.nextInt(config.tableSize);
+                if (removed[slot]) continue;
+                removed[slot] = true;
+                table.closeSlot(slot);
+                table.removeTokens(slot);
+                table.removeCard(slot);
+            }
+            pressing.set(false);
+            barrier.await();
+
+            for (int slot = 0; slot < config.tableSize; slot++)
+                for (int player = 0; player < config.players; player++) {
+                    String where = "round " + round + " player " + player + " slot " + slot;
+                    if (removed[slot]) {
+                        assertFalse(table.hasToken(player, slot), "token left on a removed card, " + where);
+                        assertFalse(ui.shows(player, slot), "token shown on a removed card, " + where);
+                    } else assertEquals(table.hasToken(player, slot), ui.shows(player, slot), where);
+                }
+
+            // both bitmask views agree: clearing a slot by its players clears the players' slots
+            if (round % 10 == 9) {
+                for (int slot = 0; slot < config.tableSize; slot++)
+                    table.removeTokens(slot);
+                for (int player = 0; player < config.players; player++)
+                    assertEquals(0, table.countTokens(player), "round " + round + " player " + player);
+            }
+        }
+        done.set(true);
+        barrier.await();
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    @Test
+    void noTokenSurvivesItsCard() throws Exception {
+        race(4, 1);
+    }
+
+    @Test
+    void noTokenSurvivesItsCardWithManyPlayers() throws Exception {
+        race(70, 2); // more players than bits in a word
+    }
+}